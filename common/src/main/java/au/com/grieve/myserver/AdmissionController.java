@@ -0,0 +1,276 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.api.BaseConfig;
+import au.com.grieve.myserver.api.ServerStatus;
+import au.com.grieve.myserver.api.templates.server.IServer;
+import au.com.grieve.myserver.exceptions.InvalidServerException;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decides when servers may start so the host isn't overcommitted
+ * <p>
+ * Every running server holds its heap plus an overhead against a memory budget, and only a few servers may be
+ * starting at once as world loading is CPU bound. Starts that don't fit wait in order of arrival, so a large server
+ * isn't starved by smaller ones slipping past it.
+ */
+@Getter
+public class AdmissionController {
+    public static final long MB = 1024L * 1024L;
+
+    private final long memoryBudget;
+    private final long memoryOverhead;
+    private final int maxStarting;
+
+    @Getter(AccessLevel.NONE)
+    private final LinkedList<Ticket> queue = new LinkedList<>();
+    @Getter(AccessLevel.NONE)
+    private final Map<UUID, Ticket> tickets = new HashMap<>();
+
+    private long memoryUsed;
+    private int starting;
+
+    /**
+     * Create a controller. Its {@link #onStatusChange} must be registered as a status listener
+     *
+     * @param limits Limits to apply
+     */
+    public AdmissionController(BaseConfig.BaseLimitsSection limits) {
+        this.memoryBudget = limits.getMemory() > 0 ? limits.getMemory() * MB : defaultMemoryBudget();
+        this.memoryOverhead = limits.getMemoryOverhead() * MB;
+        this.maxStarting = limits.getMaxStarting() > 0
+                ? limits.getMaxStarting()
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Return the host's physical memory less what the proxy itself may use
+     */
+    private static long defaultMemoryBudget() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long total = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+            return Math.max(0, total - Runtime.getRuntime().maxMemory());
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Queue a server to start
+     *
+     * @param server Server to start
+     * @param heap   Heap the server will use in bytes
+     * @return ticket granted once the server may start
+     * @throws InvalidServerException if the server can never fit or is already queued
+     */
+    public Ticket admit(IServer server, long heap) throws InvalidServerException {
+        List<Ticket> granted;
+        Ticket ticket;
+        synchronized (this) {
+            ticket = newTicket(server, heap);
+            queue.add(ticket);
+            granted = grant();
+        }
+        complete(granted);
+        return ticket;
+    }
+
+    /**
+     * Admit a server only if it can start right now without queueing
+     *
+     * @param server Server to start
+     * @param heap   Heap the server will use in bytes
+     * @return the granted ticket, or null if it would have to wait
+     * @throws InvalidServerException if the server can never fit or is already queued
+     */
+    public Ticket tryAdmit(IServer server, long heap) throws InvalidServerException {
+        Ticket ticket;
+        synchronized (this) {
+            ticket = newTicket(server, heap);
+            if (!queue.isEmpty() || !fits(ticket)) {
+                tickets.remove(ticket.uuid);
+                return null;
+            }
+            take(ticket);
+        }
+        ticket.granted.complete(null);
+        return ticket;
+    }
+
+    /**
+     * Give up a ticket, whether still queued or already granted
+     *
+     * @param ticket Ticket to release
+     */
+    public void release(Ticket ticket) {
+        List<Ticket> granted;
+        synchronized (this) {
+            if (tickets.get(ticket.uuid) != ticket) {
+                return;
+            }
+            tickets.remove(ticket.uuid);
+
+            if (queue.remove(ticket)) {
+                ticket.granted.completeExceptionally(new InvalidServerException("Server start was cancelled."));
+            } else {
+                memoryUsed -= ticket.memory;
+                if (ticket.starting) {
+                    ticket.starting = false;
+                    starting--;
+                }
+            }
+            granted = grant();
+        }
+        complete(granted);
+    }
+
+    /**
+     * Return true if server holds a granted ticket
+     */
+    public synchronized boolean isAdmitted(IServer server) {
+        Ticket ticket = tickets.get(server.getUuid());
+        return ticket != null && !queue.contains(ticket);
+    }
+
+    /**
+     * Return where a server is in the queue
+     *
+     * @param server Server to look up
+     * @return position starting at 1, or 0 if not waiting
+     */
+    public synchronized int getPosition(IServer server) {
+        Ticket ticket = tickets.get(server.getUuid());
+        return ticket != null ? queue.indexOf(ticket) + 1 : 0;
+    }
+
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    private Ticket newTicket(IServer server, long heap) throws InvalidServerException {
+        long memory = heap + memoryOverhead;
+        if (memory > memoryBudget) {
+            throw new InvalidServerException("Server needs " + memory / MB + "MB but only " + memoryBudget / MB
+                    + "MB is available to servers.");
+        }
+
+        if (tickets.containsKey(server.getUuid())) {
+            throw new InvalidServerException("Server is already starting.");
+        }
+
+        Ticket ticket = new Ticket(server.getUuid(), memory);
+        tickets.put(ticket.uuid, ticket);
+        return ticket;
+    }
+
+    private boolean fits(Ticket ticket) {
+        return starting < maxStarting && memoryUsed + ticket.memory <= memoryBudget;
+    }
+
+    private void take(Ticket ticket) {
+        memoryUsed += ticket.memory;
+        starting++;
+        ticket.starting = true;
+    }
+
+    /**
+     * Grant tickets from the head of the queue while they fit, returning those to complete outside the lock
+     */
+    private List<Ticket> grant() {
+        List<Ticket> granted = new ArrayList<>();
+        for (Iterator<Ticket> it = queue.iterator(); it.hasNext(); ) {
+            Ticket ticket = it.next();
+            if (!fits(ticket)) {
+                break;
+            }
+            it.remove();
+            take(ticket);
+            granted.add(ticket);
+        }
+        return granted;
+    }
+
+    private void complete(List<Ticket> granted) {
+        for (Ticket ticket : granted) {
+            ticket.granted.complete(null);
+        }
+    }
+
+    /**
+     * Free the starting slot once a server leaves STARTING, and its memory once it is down
+     */
+    protected void onStatusChange(IServer server, ServerStatus previous, ServerStatus status) {
+        List<Ticket> granted;
+        synchronized (this) {
+            Ticket ticket = tickets.get(server.getUuid());
+            if (ticket == null || queue.contains(ticket)) {
+                return;
+            }
+
+            switch (status) {
+                case INIT:
+                case STARTING:
+                    return;
+                case STOPPED:
+                case ERROR:
+                    tickets.remove(ticket.uuid);
+                    memoryUsed -= ticket.memory;
+                    break;
+            }
+
+            if (ticket.starting) {
+                ticket.starting = false;
+                starting--;
+            }
+            granted = grant();
+        }
+        complete(granted);
+    }
+
+    @Getter
+    public static class Ticket {
+        private final UUID uuid;
+        private final long memory;
+        private final CompletableFuture<Void> granted = new CompletableFuture<>();
+        private boolean starting;
+
+        Ticket(UUID uuid, long memory) {
+            this.uuid = uuid;
+            this.memory = memory;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.com.grieve.myserver;
+
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A content addressed store of artifacts such as server jars, patched jars and plugin jars
+ * <p>
+ * Artifacts are stored once under their SHA-256 hash and handed to servers as hard links so that every server shares
+ * the same copy on disk and in the page cache. Where a hard link isn't possible, such as across devices, the artifact
+ * is copied instead.
+ */
+@Getter
+public class ArtifactStore {
+    private final Path storePath;
+
+    // Hashes of files already added, so unchanged files are not hashed again
+    private final ConcurrentMap<Path, HashedFile> hashes = new ConcurrentHashMap<>();
+
+    public ArtifactStore(Path storePath) {
+        this.storePath = storePath;
+    }
+
+    /**
+     * Add a file to the store
+     *
+     * @param source File to add
+     * @return path of artifact in the store
+     */
+    public Path add(Path source) throws IOException {
+        Path artifact = getArtifactPath(hash(source));
+        if (Files.exists(artifact)) {
+            return artifact;
+        }
+
+        Files.createDirectories(artifact.getParent());
+        Path tmp = Files.createTempFile(artifact.getParent(), ".artifact", ".tmp");
+        try {
+            Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+
+            // Artifacts are shared so must never be modified in place
+            //noinspection ResultOfMethodCallIgnored
+            tmp.toFile().setWritable(false, false);
+
+            try {
+                Files.move(tmp, artifact, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, artifact);
+            }
+        } catch (IOException e) {
+            if (!Files.exists(artifact)) {
+                throw e;
+            }
+            // Someone else added it first
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return artifact;
+    }
+
+    /**
+     * Add a file to the store and place it at target
+     *
+     * @param source File to add
+     * @param target Where to place it
+     */
+    public void install(Path source, Path target) throws IOException {
+        link(add(source), target);
+    }
+
+    /**
+     * Place an artifact at target, hard linking where possible
+     *
+     * @param artifact Artifact in the store
+     * @param target   Where to place it
+     */
+    public void link(Path artifact, Path target) throws IOException {
+        // Already linked, or an identical copy from an earlier fallback
+        if (Files.exists(target) && (Files.isSameFile(artifact, target)
+                || (Files.size(target) == Files.size(artifact) && hash(target).equals(artifact.getFileName().toString())))) {
+            return;
+        }
+
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, artifact);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(artifact, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Return the SHA-256 hash of a file
+     *
+     * @param path File to hash
+     * @return hex encoded hash
+     */
+    public String hash(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+
+        HashedFile hashed = hashes.get(path);
+        if (hashed != null && hashed.getLastModified() == lastModified && hashed.getSize() == attrs.size()) {
+            return hashed.getHash();
+        }
+
+        String hash = com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.sha256()).toString();
+        hashes.put(path, new HashedFile(hash, lastModified, attrs.size()));
+        return hash;
+    }
+
+    protected Path getArtifactPath(String hash) {
+        return storePath.resolve("sha256").resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class HashedFile {
+        private final String hash;
+        private final long lastModified;
+        private final long size;
+    }
+}
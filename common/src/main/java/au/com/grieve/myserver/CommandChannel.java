@@ -0,0 +1,214 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.exceptions.InvalidServerException;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues commands for a process and writes them from a writer pool
+ * <p>
+ * Whatever has queued up by the time the writer runs is sent with a single write and flush. Callers never wait on the
+ * process, and once too many commands are waiting new ones are refused rather than queued without limit. While paused,
+ * such as when the process is frozen, commands are queued without touching the process until resumed.
+ */
+@Getter
+public class CommandChannel {
+    public static final int MAX_PENDING = 256;
+
+    private final Writer output;
+    private final Executor executor;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final StringBuilder buffer = new StringBuilder();
+    private volatile boolean closed;
+    private volatile boolean paused;
+
+    // Only touched by the drain, which never runs concurrently with itself
+    private boolean outputClosed;
+
+    public CommandChannel(OutputStream output, Charset charset, Executor executor) {
+        this.output = new OutputStreamWriter(output, charset);
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a command
+     *
+     * @param command Command to send
+     * @return future completed once the command has been written
+     */
+    public CompletableFuture<Void> send(String command) {
+        return send(Collections.singletonList(command));
+    }
+
+    /**
+     * Queue several commands to be written together
+     *
+     * @param commands Commands to send
+     * @return future completed once all the commands have been written
+     */
+    public CompletableFuture<Void> send(Collection<String> commands) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new InvalidServerException("Server is not accepting commands."));
+            return future;
+        }
+
+        if (pending.addAndGet(commands.size()) > MAX_PENDING) {
+            pending.addAndGet(-commands.size());
+            future.completeExceptionally(new InvalidServerException("Too many commands waiting to be sent."));
+            return future;
+        }
+
+        queue.add(new Pending(new ArrayList<>(commands), future));
+        schedule();
+        return future;
+    }
+
+    /**
+     * Hold commands in the queue until resumed
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Write any commands queued while paused
+     */
+    public void resume() {
+        paused = false;
+        schedule();
+    }
+
+    /**
+     * Stop accepting commands, failing any still waiting
+     */
+    public void close() {
+        closed = true;
+        schedule();
+    }
+
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                fail(new InvalidServerException("Server is not accepting commands.", e));
+            }
+        }
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>();
+        if (!paused || closed) {
+            for (Pending p; (p = queue.poll()) != null; ) {
+                batch.add(p);
+            }
+        }
+
+        if (closed) {
+            for (Pending p : batch) {
+                p.future.completeExceptionally(new InvalidServerException("Server is not accepting commands."));
+            }
+            if (!outputClosed) {
+                outputClosed = true;
+                try {
+                    output.close();
+                } catch (IOException ignored) {
+                }
+            }
+        } else if (!batch.isEmpty()) {
+            buffer.setLength(0);
+            for (Pending p : batch) {
+                for (String command : p.commands) {
+                    buffer.append(command).append('\n');
+                }
+            }
+
+            IOException error = null;
+            try {
+                output.write(buffer.toString());
+                output.flush();
+            } catch (IOException e) {
+                error = e;
+                closed = true;
+            }
+
+            for (Pending p : batch) {
+                if (error == null) {
+                    p.future.complete(null);
+                } else {
+                    p.future.completeExceptionally(error);
+                }
+            }
+        }
+
+        for (Pending p : batch) {
+            pending.addAndGet(-p.commands.size());
+        }
+
+        // A close or resume while we were writing couldn't schedule a drain of its own
+        draining.set(false);
+        if ((!paused && !queue.isEmpty()) || (closed && !outputClosed)) {
+            schedule();
+        }
+    }
+
+    private void fail(Throwable e) {
+        for (Pending p; (p = queue.poll()) != null; ) {
+            pending.addAndGet(-p.commands.size());
+            p.future.completeExceptionally(e);
+        }
+    }
+
+    private static class Pending {
+        private final List<String> commands;
+        private final CompletableFuture<Void> future;
+
+        Pending(List<String> commands, CompletableFuture<Void> future) {
+            this.commands = commands;
+            this.future = future;
+        }
+    }
+}
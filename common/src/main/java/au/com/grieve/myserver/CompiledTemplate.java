@@ -0,0 +1,245 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.exceptions.PlaceholderLoopException;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A template parsed once into literals and placeholders so it can be rendered in a single pass
+ * <p>
+ * Placeholders are encased in double brackets like {{variable}}. Templates read from files are cached until the
+ * file changes.
+ */
+@Getter
+public class CompiledTemplate {
+    private static final ConcurrentMap<Path, CachedTemplate> FILE_CACHE = new ConcurrentHashMap<>();
+
+    private final List<Token> tokens;
+    private final Set<String> references;
+    private final int literalLength;
+
+    protected CompiledTemplate(List<Token> tokens) {
+        this.tokens = tokens;
+
+        Set<String> references = new LinkedHashSet<>();
+        int literalLength = 0;
+        for (Token token : tokens) {
+            if (token.getName() != null) {
+                references.add(token.getName());
+            } else {
+                literalLength += token.getText().length();
+            }
+        }
+        this.references = Collections.unmodifiableSet(references);
+        this.literalLength = literalLength;
+    }
+
+    /**
+     * Parse a string into a template
+     *
+     * @param input the string to parse
+     * @return compiled template
+     */
+    public static CompiledTemplate compile(String input) {
+        List<Token> tokens = new ArrayList<>();
+        int length = input.length();
+        int literalStart = 0;
+
+        for (int start = input.indexOf("{{"); start >= 0; start = input.indexOf("{{", start)) {
+            int pos = start + 2;
+            while (pos < length && input.charAt(pos) == ' ') {
+                pos++;
+            }
+
+            int nameStart = pos;
+            while (pos < length && isNameChar(input.charAt(pos))) {
+                pos++;
+            }
+            int nameEnd = pos;
+
+            while (pos < length && input.charAt(pos) == ' ') {
+                pos++;
+            }
+
+            if (nameEnd == nameStart || !input.startsWith("}}", pos)) {
+                start++;
+                continue;
+            }
+
+            if (start > literalStart) {
+                tokens.add(new Token(input.substring(literalStart, start), null));
+            }
+            tokens.add(new Token(input.substring(start, pos + 2), input.substring(nameStart, nameEnd)));
+            literalStart = start = pos + 2;
+        }
+
+        if (literalStart < length) {
+            tokens.add(new Token(input.substring(literalStart), null));
+        }
+
+        return new CompiledTemplate(tokens);
+    }
+
+    private static boolean isNameChar(char c) {
+        return c != '}' && c != ' ' && c != '\n' && c != '\r';
+    }
+
+    /**
+     * Return a compiled template for a file, parsing it only if it has changed since last time
+     *
+     * @param path    file to read
+     * @param charset charset of file
+     * @return compiled template
+     */
+    public static CompiledTemplate fromFile(Path path, Charset charset) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+
+        CachedTemplate cached = FILE_CACHE.get(path);
+        if (cached != null && cached.getLastModified() == lastModified && cached.getSize() == attrs.size()) {
+            return cached.getTemplate();
+        }
+
+        CompiledTemplate template = compile(new String(Files.readAllBytes(path), charset));
+        FILE_CACHE.put(path, new CachedTemplate(template, lastModified, attrs.size()));
+        return template;
+    }
+
+    /**
+     * Forget cached templates of files at or under a path, such as a template that has changed or gone away
+     *
+     * @param path file or folder
+     */
+    public static void evict(Path path) {
+        FILE_CACHE.keySet().removeIf(p -> p.startsWith(path));
+    }
+
+    /**
+     * Return true if the template has no placeholders
+     *
+     * @return true if constant
+     */
+    public boolean isConstant() {
+        return references.isEmpty();
+    }
+
+    /**
+     * Render the template, leaving unknown placeholders untouched
+     *
+     * @param values resolved values of placeholders
+     * @param out    buffer to append to
+     */
+    public void render(Map<String, String> values, StringBuilder out) {
+        out.ensureCapacity(out.length() + literalLength + references.size() * 16);
+        for (Token token : tokens) {
+            String value = token.getName() != null ? values.get(token.getName()) : null;
+            out.append(value != null ? value : token.getText());
+        }
+    }
+
+    /**
+     * Resolve placeholders inside the values of the named variables, and of any variables they reference
+     * <p>
+     * Only variables reached from the names are resolved. Results are added to resolved, so it can be passed to each
+     * call to avoid resolving a variable twice.
+     *
+     * @param names     variables to resolve
+     * @param variables all variables
+     * @param resolved  variables with their placeholders replaced
+     * @throws PlaceholderLoopException if a variable references itself
+     */
+    public static void resolve(Collection<String> names, Map<String, String> variables, Map<String, String> resolved) throws PlaceholderLoopException {
+        for (String name : names) {
+            resolve(name, variables, resolved, new LinkedHashSet<>());
+        }
+    }
+
+    private static String resolve(String name, Map<String, String> variables, Map<String, String> resolved, Set<String> visiting) throws PlaceholderLoopException {
+        if (resolved.containsKey(name)) {
+            return resolved.get(name);
+        }
+
+        String value = variables.get(name);
+        if (value == null) {
+            return null;
+        }
+
+        if (!visiting.add(name)) {
+            throw new PlaceholderLoopException("Placeholder loop: " + String.join(" -> ", visiting) + " -> " + name);
+        }
+
+        CompiledTemplate template = compile(value);
+        if (!template.isConstant()) {
+            for (String reference : template.getReferences()) {
+                resolve(reference, variables, resolved, visiting);
+            }
+            StringBuilder sb = new StringBuilder(value.length());
+            template.render(resolved, sb);
+            value = sb.toString();
+        }
+
+        visiting.remove(name);
+        resolved.put(name, value);
+        return value;
+    }
+
+    /**
+     * Either a literal or a placeholder
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class Token {
+        // Original text
+        private final String text;
+
+        // Name of placeholder, or null if literal
+        private final String name;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class CachedTemplate {
+        private final CompiledTemplate template;
+        private final long lastModified;
+        private final long size;
+    }
+}
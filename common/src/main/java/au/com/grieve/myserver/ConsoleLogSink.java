@@ -0,0 +1,394 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import lombok.Getter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the console output of servers to their own log files from a single background thread
+ * <p>
+ * Lines are queued and written in batches to logs/console.log under each server, which is gzipped and rotated once it
+ * grows too large. The queue never blocks, so lines are dropped and counted if the writer falls behind. Each log also
+ * decides which lines are worth forwarding to the proxy's own log, filtered by level and rate limited.
+ */
+@Getter
+public class ConsoleLogSink {
+    public static final int QUEUE_SIZE = 65536;
+    public static final int BATCH_SIZE = 1024;
+    public static final long MAX_FILE_SIZE = 10 * 1024 * 1024;
+    public static final int MAX_FILES = 10;
+
+    // How long shutdown waits for the queue to be written before interrupting the writer
+    public static final long SHUTDOWN_WAIT = 5000;
+
+    private static final DateTimeFormatter ROTATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // Queued by shutdown to wake the writer
+    private static final Entry SHUTDOWN = new Entry(null, null);
+
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Set<ConsoleLog> openLogs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // Logs closed while the queue was full, closed once the queue has emptied
+    private final Queue<ConsoleLog> pendingClose = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public ConsoleLogSink() {
+        writer = new Thread(this::run, "MyServer-ConsoleLog");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Open the console log of a server
+     *
+     * @param directory    Folder to write logs to
+     * @param forwardLevel Lowest level forwarded to the proxy
+     * @param forwardRate  Lines per second forwarded to the proxy
+     * @return the log
+     */
+    public ConsoleLog open(Path directory, Level forwardLevel, int forwardRate) {
+        return new ConsoleLog(directory, forwardLevel, forwardRate);
+    }
+
+    /**
+     * Write out everything queued and stop
+     * <p>
+     * The writer is only interrupted if it hasn't finished in time, as an interrupt during a write closes the file
+     * before it is flushed.
+     */
+    public void shutdown() {
+        running = false;
+
+        // If the queue is full the writer is busy and will see we've stopped
+        queue.offer(SHUTDOWN);
+        try {
+            writer.join(SHUTDOWN_WAIT);
+            if (writer.isAlive()) {
+                writer.interrupt();
+                writer.join(1000);
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        Set<ConsoleLog> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    closePending();
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // Shutting down, finish off the queue
+            }
+            queue.drainTo(batch, BATCH_SIZE - batch.size());
+
+            for (Entry entry : batch) {
+                if (entry == SHUTDOWN) {
+                    continue;
+                }
+
+                try {
+                    if (entry.line == null) {
+                        entry.log.closeFile();
+                        openLogs.remove(entry.log);
+                        touched.remove(entry.log);
+                        continue;
+                    }
+                    entry.log.writeLine(entry.line);
+                    openLogs.add(entry.log);
+                    touched.add(entry.log);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            for (ConsoleLog log : touched) {
+                try {
+                    log.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            batch.clear();
+            touched.clear();
+
+            if (queue.isEmpty()) {
+                closePending();
+            }
+        }
+
+        closePending();
+        for (ConsoleLog log : openLogs) {
+            log.closeFile();
+        }
+        openLogs.clear();
+    }
+
+    private void closePending() {
+        for (ConsoleLog log; (log = pendingClose.poll()) != null; ) {
+            log.closeFile();
+            openLogs.remove(log);
+        }
+    }
+
+    /**
+     * Return the level of a line of server output, or null if it doesn't have one such as a stack trace
+     */
+    public static Level detectLevel(String line) {
+        int end = line.indexOf("]:");
+        if (end < 0 || end > 80) {
+            return null;
+        }
+
+        String prefix = line.substring(0, end);
+        if (prefix.contains("ERROR") || prefix.contains("SEVERE") || prefix.contains("FATAL")) {
+            return Level.ERROR;
+        }
+        if (prefix.contains("WARN")) {
+            return Level.WARN;
+        }
+        if (prefix.contains("INFO")) {
+            return Level.INFO;
+        }
+        if (prefix.contains("DEBUG") || prefix.contains("TRACE")) {
+            return Level.DEBUG;
+        }
+        return null;
+    }
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        NONE
+    }
+
+    private static class Entry {
+        private final ConsoleLog log;
+        private final String line;
+
+        Entry(ConsoleLog log, String line) {
+            this.log = log;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Console log of a single server
+     */
+    @Getter
+    public class ConsoleLog {
+        private final Path directory;
+        private final Level forwardLevel;
+        private final int forwardRate;
+
+        // Counters
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+
+        // Forwarding state, only used from the thread passing on output
+        private Level lastLevel = Level.INFO;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long unreported;
+
+        // File state, only used from the writer thread
+        private BufferedWriter out;
+        private long size;
+
+        ConsoleLog(Path directory, Level forwardLevel, int forwardRate) {
+            this.directory = directory;
+            this.forwardLevel = forwardLevel;
+            this.forwardRate = forwardRate;
+            this.tokens = forwardRate;
+        }
+
+        /**
+         * Queue a line to be written
+         */
+        public void write(String line) {
+            if (!queue.offer(new Entry(this, line))) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Return true if line should be forwarded to the proxy log
+         * <p>
+         * Lines without a level, such as stack traces, take the level of the line before them. Up to forwardRate
+         * lines a second are let through, with bursts of up to forwardRate lines.
+         */
+        public boolean shouldForward(String line) {
+            Level level = detectLevel(line);
+            if (level != null) {
+                lastLevel = level;
+            } else {
+                level = lastLevel;
+            }
+
+            if (forwardLevel == Level.NONE || level.ordinal() < forwardLevel.ordinal()) {
+                return false;
+            }
+
+            long now = System.nanoTime();
+            tokens = Math.min(forwardRate, tokens + (now - lastRefill) * forwardRate / 1e9);
+            lastRefill = now;
+            if (tokens < 1) {
+                suppressed.incrementAndGet();
+                unreported++;
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        /**
+         * Return how many lines were suppressed since this was last called
+         */
+        public long takeSuppressed() {
+            long result = unreported;
+            unreported = 0;
+            return result;
+        }
+
+        /**
+         * Close the log once everything queued before has been written
+         * <p>
+         * Never blocks. If the queue is full the log is closed once the queue has emptied instead.
+         */
+        public void close() {
+            if (!queue.offer(new Entry(this, null))) {
+                pendingClose.add(this);
+            }
+        }
+
+        public Path getLogFile() {
+            return directory.resolve("console.log");
+        }
+
+        void writeLine(String line) throws IOException {
+            if (out == null) {
+                Files.createDirectories(directory);
+                Path file = getLogFile();
+                size = Files.exists(file) ? Files.size(file) : 0;
+                out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8));
+            }
+
+            out.write(line);
+            out.write('\n');
+            size += line.length() + 1;
+            written.incrementAndGet();
+
+            if (size >= MAX_FILE_SIZE) {
+                rotate();
+            }
+        }
+
+        void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        void closeFile() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                out = null;
+            }
+        }
+
+        /**
+         * Compress the current log and start a new one, removing the oldest once there are too many
+         */
+        protected void rotate() throws IOException {
+            closeFile();
+
+            Path file = getLogFile();
+            String name = "console-" + ROTATE_FORMAT.format(LocalDateTime.now());
+            Path rotated = directory.resolve(name + ".log.gz");
+            for (int i = 1; Files.exists(rotated); i++) {
+                rotated = directory.resolve(name + "-" + i + ".log.gz");
+            }
+            try (InputStream in = Files.newInputStream(file);
+                 OutputStream gz = new GZIPOutputStream(Files.newOutputStream(rotated))) {
+                byte[] buffer = new byte[65536];
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    gz.write(buffer, 0, n);
+                }
+            }
+            Files.delete(file);
+
+            List<Path> old = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "console-*.log.gz")) {
+                for (Path path : stream) {
+                    old.add(path);
+                }
+            }
+            Collections.sort(old);
+            for (int i = 0; i < old.size() - MAX_FILES; i++) {
+                Files.deleteIfExists(old.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.api.ServerStatus;
+import au.com.grieve.myserver.api.ServerStatusListener;
+import au.com.grieve.myserver.api.scheduler.IScheduledTask;
+import au.com.grieve.myserver.api.templates.server.IServer;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes every running server from a single timer wheel
+ * <p>
+ * Starting servers are probed often until they answer. Healthy servers are probed slowly with jitter so probes don't
+ * bunch up. A probe is a cheap TCP connect, and a full ping is only sent when the connect fails or to confirm a
+ * starting server is ready. Servers listening on a socket file are always given a full ping.
+ */
+@Getter
+public class HealthMonitor implements ServerStatusListener {
+    // Wheel resolution
+    public static final long TICK_MILLIS = 250;
+    public static final int WHEEL_SIZE = 512;
+
+    // Probes sent per tick before the rest wait for the next tick
+    public static final int MAX_PROBES_PER_TICK = 16;
+
+    // Probe intervals in milliseconds
+    public static final long STARTING_INTERVAL = 2000;
+    public static final long STARTING_READY_INTERVAL = 10000;
+    public static final long HEALTHY_INTERVAL = 30000;
+    public static final long SUSPECT_INTERVAL = 5000;
+    public static final double JITTER = 0.25;
+
+    public static final long CONNECT_TIMEOUT = 1000;
+
+    // Failed full pings before a server is unhealthy
+    public static final int UNHEALTHY_FAILURES = 3;
+
+    private final ServerManager serverManager;
+    private final Map<UUID, Health> servers = new ConcurrentHashMap<>();
+    private final List<Set<Health>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private volatile long currentTick;
+    private IScheduledTask task;
+
+    public HealthMonitor(ServerManager serverManager) {
+        this.serverManager = serverManager;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Start turning the wheel
+     */
+    public void start() {
+        serverManager.addStatusListener(this);
+        task = serverManager.getMyServer().getScheduler().schedule(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        serverManager.removeStatusListener(this);
+        if (task != null) {
+            serverManager.getMyServer().getScheduler().cancel(task);
+            task = null;
+        }
+        servers.clear();
+        for (Set<Health> slot : wheel) {
+            slot.clear();
+        }
+    }
+
+    /**
+     * Return the health of a server, or null if it isn't being monitored
+     */
+    public Health getHealth(IServer server) {
+        return servers.get(server.getUuid());
+    }
+
+    @Override
+    public void onStatusChange(IServer server, ServerStatus previous, ServerStatus status) {
+        switch (status) {
+            case STARTING:
+            case STARTED:
+                Health health = new Health(server);
+                Health existing = servers.putIfAbsent(server.getUuid(), health);
+                if (existing != null) {
+                    if (existing.server == server) {
+                        // Already on the wheel
+                        break;
+                    }
+                    servers.put(server.getUuid(), health);
+                }
+
+                // Spread the first probe over the interval
+                long interval = interval(health);
+                schedule(health, ThreadLocalRandom.current().nextLong(TICK_MILLIS, interval + 1));
+                break;
+            default:
+                servers.remove(server.getUuid());
+        }
+    }
+
+    /**
+     * Place health on the wheel to be probed after delay milliseconds
+     */
+    protected void schedule(Health health, long delay) {
+        long ticks = Math.max(1, delay / TICK_MILLIS);
+        long due = currentTick + ticks;
+        Set<Health> slot = wheel.get((int) (due % WHEEL_SIZE));
+        health.due = due;
+        slot.add(health);
+    }
+
+    protected void tick() {
+        long now = ++currentTick;
+        Set<Health> slot = wheel.get((int) (now % WHEEL_SIZE));
+
+        int probes = 0;
+        for (Health health : slot) {
+            if (health.due > now) {
+                // Due on a later turn of the wheel
+                continue;
+            }
+            slot.remove(health);
+
+            if (servers.get(health.server.getUuid()) != health) {
+                continue;
+            }
+
+            if (probes++ >= MAX_PROBES_PER_TICK) {
+                schedule(health, TICK_MILLIS);
+                continue;
+            }
+            probe(health);
+        }
+    }
+
+    protected void probe(Health health) {
+        IServer server = health.server;
+        if (server.getServerSocket() != null) {
+            // Nothing to connect to cheaply, so the proxy pings it over the socket
+            health.lastProbe = System.currentTimeMillis();
+            confirm(health, System.nanoTime(), server.getStatus() == ServerStatus.STARTING);
+            return;
+        }
+
+        if (server.getServerIp() == null || server.getServerPort() == null) {
+            reschedule(health);
+            return;
+        }
+
+        long start = System.nanoTime();
+        connect(new InetSocketAddress(server.getServerIp(), server.getServerPort())).whenComplete((connected, e) -> {
+            health.lastProbe = System.currentTimeMillis();
+            boolean starting = server.getStatus() == ServerStatus.STARTING;
+
+            if (Boolean.TRUE.equals(connected) && !starting) {
+                health.latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                health.failures = 0;
+                health.state = HealthState.HEALTHY;
+                reschedule(health);
+                return;
+            }
+
+            if (!Boolean.TRUE.equals(connected) && starting) {
+                // Not listening yet
+                reschedule(health);
+                return;
+            }
+
+            // Either a starting server is listening, or a running server refused a connection. Confirm with a full ping
+            if (!starting) {
+                health.state = HealthState.SUSPECT;
+            }
+            confirm(health, start, starting);
+        });
+    }
+
+    /**
+     * Ping a server through the proxy and record the result
+     */
+    protected void confirm(Health health, long start, boolean starting) {
+        IServer server = health.server;
+        server.ping().whenComplete((up, ex) -> {
+            if (Boolean.TRUE.equals(up)) {
+                health.latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                health.failures = 0;
+                health.state = HealthState.HEALTHY;
+                if (starting) {
+                    server.markReady();
+                }
+            } else if (!starting) {
+                health.failures++;
+                health.state = health.failures >= UNHEALTHY_FAILURES ? HealthState.UNHEALTHY : HealthState.SUSPECT;
+            }
+            reschedule(health);
+        });
+    }
+
+    protected void reschedule(Health health) {
+        if (servers.get(health.server.getUuid()) == health) {
+            schedule(health, interval(health));
+        }
+    }
+
+    /**
+     * Return the next probe interval for a server, with jitter once healthy
+     */
+    protected long interval(Health health) {
+        if (health.server.getStatus() == ServerStatus.STARTING) {
+            return health.server.getTemplate().getServerStartReady().isEmpty() ? STARTING_INTERVAL : STARTING_READY_INTERVAL;
+        }
+
+        if (health.state != HealthState.HEALTHY) {
+            return SUSPECT_INTERVAL;
+        }
+
+        long jitter = (long) (HEALTHY_INTERVAL * JITTER);
+        return HEALTHY_INTERVAL + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+    }
+
+    /**
+     * Attempt a TCP connect without holding a thread
+     *
+     * @return future completed with true if the connection was accepted
+     */
+    protected CompletableFuture<Boolean> connect(InetSocketAddress address) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open();
+        } catch (IOException e) {
+            future.complete(false);
+            return future;
+        }
+
+        IScheduledTask timeout = serverManager.getMyServer().getScheduler().schedule(() -> {
+            if (future.complete(false)) {
+                close(channel);
+            }
+        }, CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void result, Void attachment) {
+                serverManager.getMyServer().getScheduler().cancel(timeout);
+                future.complete(true);
+                close(channel);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                serverManager.getMyServer().getScheduler().cancel(timeout);
+                future.complete(false);
+                close(channel);
+            }
+        });
+        return future;
+    }
+
+    private static void close(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public enum HealthState {
+        UNKNOWN,
+        HEALTHY,
+        SUSPECT,
+        UNHEALTHY
+    }
+
+    /**
+     * Latest probe results for a server
+     */
+    @Getter
+    public static class Health {
+        private final IServer server;
+        private volatile HealthState state = HealthState.UNKNOWN;
+        private volatile int failures;
+        private volatile long lastProbe;
+        private volatile long latency;
+
+        // Tick this is next due on the wheel
+        private volatile long due;
+
+        public Health(IServer server) {
+            this.server = server;
+        }
+    }
+}
@@ -26,6 +26,7 @@ package au.com.grieve.myserver;
 
 import au.com.grieve.myserver.api.BaseConfig;
 import au.com.grieve.myserver.api.scheduler.ITaskScheduler;
+import au.com.grieve.myserver.api.templates.server.IServerTemplate;
 import lombok.Getter;
 
 
@@ -37,13 +38,37 @@ public abstract class MyServer {
     private final BaseConfig config;
     private final TemplateManager templateManager;
     private final ServerManager serverManager;
+    private final ArtifactStore artifactStore;
+    private final ProvisioningService provisioningService;
 
     public MyServer(BaseConfig config) {
         this.config = config;
+        this.artifactStore = new ArtifactStore(config.getFolderConfig().getCachePath().resolve("artifacts"));
+        this.provisioningService = new ProvisioningService();
         this.templateManager = createTemplateManager();
         this.serverManager = createServerManager();
     }
 
+    /**
+     * Initialize managers. Called once all template types have been registered
+     */
+    public void init() {
+        templateManager.init();
+        serverManager.init();
+
+        // Build any missing server jars ahead of the first start
+        getScheduler().runAsync(() -> provisioningService.warmUp(templateManager.getTemplates(IServerTemplate.class)));
+    }
+
+    /**
+     * Shutdown managers
+     */
+    public void shutdown() {
+        serverManager.shutdown();
+        templateManager.shutdown();
+        provisioningService.shutdown();
+    }
+
     protected TemplateManager createTemplateManager() {
         return new TemplateManager(this);
     }
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.exceptions.PortNotFoundException;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out ports from a fixed range
+ * <p>
+ * Ports in use are bits in an AtomicLongArray so allocating and releasing needs no lock. A port is only handed out
+ * once we've been able to bind it, so ports held by other processes on the host are skipped. Searching starts after
+ * the last port handed out, and a server's previous port is tried first so it keeps the same one across restarts.
+ */
+@Getter
+public class PortAllocator {
+    private final int start;
+    private final int amount;
+    private final AtomicLongArray used;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    public PortAllocator(int start, int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Port amount must not be negative: " + amount);
+        }
+        this.start = start;
+        this.amount = amount;
+        this.used = new AtomicLongArray((amount + 63) / 64);
+    }
+
+    /**
+     * Allocate a free port
+     *
+     * @param preferred Port to try first, or null
+     * @return the port
+     * @throws PortNotFoundException if every port is in use, or the range is empty
+     */
+    public int allocate(Integer preferred) throws PortNotFoundException {
+        if (amount == 0) {
+            throw new PortNotFoundException("No ports configured");
+        }
+
+        if (preferred != null && preferred >= start && preferred < start + amount && claim(preferred - start)) {
+            return preferred;
+        }
+
+        int offset = Math.floorMod(cursor.getAndIncrement(), amount);
+        for (int i = 0; i < amount; i++) {
+            int index = (offset + i) % amount;
+            if (claim(index)) {
+                cursor.set(index + 1);
+                return start + index;
+            }
+        }
+        throw new PortNotFoundException("No free port");
+    }
+
+    /**
+     * Return a port to the pool
+     *
+     * @param port Port to release
+     */
+    public void release(int port) {
+        if (port < start || port >= start + amount) {
+            return;
+        }
+
+        int index = port - start;
+        long mask = 1L << (index & 63);
+        while (true) {
+            long word = used.get(index >> 6);
+            if ((word & mask) == 0 || used.compareAndSet(index >> 6, word, word & ~mask)) {
+                return;
+            }
+        }
+    }
+
+    public boolean isUsed(int port) {
+        int index = port - start;
+        return index >= 0 && index < amount && (used.get(index >> 6) & (1L << (index & 63))) != 0;
+    }
+
+    /**
+     * Take the port at index if it is free here and on the host
+     */
+    private boolean claim(int index) {
+        long mask = 1L << (index & 63);
+        while (true) {
+            long word = used.get(index >> 6);
+            if ((word & mask) != 0) {
+                return false;
+            }
+            if (used.compareAndSet(index >> 6, word, word | mask)) {
+                break;
+            }
+        }
+
+        if (probe(start + index)) {
+            return true;
+        }
+
+        release(start + index);
+        return false;
+    }
+
+    /**
+     * Return true if nothing on the host is listening on port
+     */
+    protected boolean probe(int port) {
+        try (ServerSocket socket = new ServerSocket()) {
+            // Connections left in TIME_WAIT by a previous server don't stop it binding again
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(port));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
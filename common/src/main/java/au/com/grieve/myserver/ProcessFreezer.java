@@ -0,0 +1,236 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Freezes and thaws the process tree of a server
+ * <p>
+ * If the server was placed in a cgroup of its own the cgroup v2 freezer is used, which can also ask the kernel to
+ * reclaim its memory. Otherwise each process in the tree is sent SIGSTOP and SIGCONT. Freezing is left to the kernel so
+ * a frozen server keeps its sockets and heap and thaws in milliseconds.
+ */
+public class ProcessFreezer {
+    public static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+    public static final long FREEZE_WAIT = TimeUnit.SECONDS.toMillis(2);
+
+    /**
+     * Freeze a process and its children
+     *
+     * @param process Process to freeze
+     * @param reclaim true to ask the kernel to reclaim the frozen memory
+     */
+    public void freeze(Process process, boolean reclaim) throws IOException {
+        long pid = getPid(process);
+        Path cgroup = getOwnCgroup(pid);
+
+        if (cgroup == null) {
+            signal("STOP", getTree(pid));
+            return;
+        }
+
+        write(cgroup.resolve("cgroup.freeze"), "1");
+        waitFrozen(cgroup);
+
+        if (reclaim && Files.exists(cgroup.resolve("memory.reclaim"))) {
+            try {
+                String current = new String(Files.readAllBytes(cgroup.resolve("memory.current")), StandardCharsets.US_ASCII).trim();
+                write(cgroup.resolve("memory.reclaim"), current);
+            } catch (IOException ignored) {
+                // The kernel reclaims what it can and reports the rest as an error
+            }
+        }
+    }
+
+    /**
+     * Thaw a process and its children
+     *
+     * @param process Process to thaw
+     */
+    public void thaw(Process process) throws IOException {
+        long pid = getPid(process);
+        Path cgroup = getOwnCgroup(pid);
+
+        if (cgroup == null) {
+            signal("CONT", getTree(pid));
+            return;
+        }
+
+        write(cgroup.resolve("cgroup.freeze"), "0");
+    }
+
+    /**
+     * Return the pid of a process
+     */
+    public static long getPid(Process process) throws IOException {
+        try {
+            // Java 9+
+            Method method = Process.class.getMethod("pid");
+            return (long) method.invoke(process);
+        } catch (NoSuchMethodException ignored) {
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            throw new IOException("Unable to find process id", e);
+        }
+
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getLong(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IOException("Process freezing is not supported on this platform", e);
+        }
+    }
+
+    /**
+     * Return the cgroup v2 folder of pid if it differs from our own, else null
+     * <p>
+     * Freezing a cgroup we share would freeze the proxy too.
+     */
+    protected Path getOwnCgroup(long pid) {
+        String cgroup = readCgroup(Paths.get("/proc", Long.toString(pid), "cgroup"));
+        if (cgroup == null || cgroup.equals("/") || cgroup.equals(readCgroup(Paths.get("/proc/self/cgroup")))) {
+            return null;
+        }
+
+        Path path = CGROUP_ROOT.resolve(cgroup.substring(1));
+        return Files.isWritable(path.resolve("cgroup.freeze")) ? path : null;
+    }
+
+    private static String readCgroup(Path file) {
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("0::")) {
+                    return line.substring(3);
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return null;
+    }
+
+    private static void waitFrozen(Path cgroup) throws IOException {
+        long deadline = System.currentTimeMillis() + FREEZE_WAIT;
+        while (System.currentTimeMillis() < deadline) {
+            for (String line : Files.readAllLines(cgroup.resolve("cgroup.events"), StandardCharsets.US_ASCII)) {
+                if (line.equals("frozen 1")) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new IOException("Timed out freezing " + cgroup);
+    }
+
+    /**
+     * Return pid and all its descendants, parents first
+     */
+    protected List<Long> getTree(long pid) {
+        List<Long> tree = new ArrayList<>();
+        tree.add(pid);
+
+        Map<Long, List<Long>> children = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get("/proc"), "[0-9]*")) {
+            for (Path dir : stream) {
+                try {
+                    String stat = new String(Files.readAllBytes(dir.resolve("stat")), StandardCharsets.US_ASCII);
+                    // Fields after the command name, which may itself contain spaces
+                    String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                    children.computeIfAbsent(Long.parseLong(fields[1]), k -> new ArrayList<>())
+                            .add(Long.parseLong(dir.getFileName().toString()));
+                } catch (IOException | RuntimeException ignored) {
+                    // Process went away
+                }
+            }
+        } catch (IOException e) {
+            return tree;
+        }
+
+        Deque<Long> queue = new ArrayDeque<>();
+        queue.add(pid);
+        while (!queue.isEmpty()) {
+            for (Long child : children.getOrDefault(queue.poll(), new ArrayList<>())) {
+                tree.add(child);
+                queue.add(child);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Send signal to the first pid, then best effort to the rest as children may exit at any time
+     */
+    private static void signal(String signal, List<Long> pids) throws IOException {
+        if (!kill(signal, pids.subList(0, 1))) {
+            throw new IOException("Unable to send SIG" + signal + " to " + pids.get(0));
+        }
+        if (pids.size() > 1) {
+            kill(signal, pids.subList(1, pids.size()));
+        }
+    }
+
+    private static boolean kill(String signal, List<Long> pids) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("kill");
+        command.add("-" + signal);
+        for (Long pid : pids) {
+            command.add(pid.toString());
+        }
+
+        Process kill = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try {
+            if (!kill.waitFor(5, TimeUnit.SECONDS)) {
+                kill.destroyForcibly();
+                return false;
+            }
+            return kill.exitValue() == 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted sending SIG" + signal, e);
+        }
+    }
+
+    private static void write(Path file, String value) throws IOException {
+        Files.write(file, value.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Reads the output of every managed process from a small fixed set of threads
+ * <p>
+ * Each worker polls its processes for available output, so reads never block and one thread serves many servers.
+ * Output is decoded through buffers kept for the life of each process, and a process is finished once it is no
+ * longer alive and its output is drained, rather than waiting for EOF which a leftover child process can hold off.
+ * <p>
+ * Workers only read and decode. Lines are queued per process and passed on from a separate set of threads, one
+ * process at a time and in order, so a slow handler can't hold up reading the output of other servers.
+ * <p>
+ * Commands sent to processes are written from writer threads started as needed, see {@link CommandChannel}. A process
+ * that stops reading its input only holds up the one writer sending to it.
+ */
+@Getter
+public class ProcessPump {
+    public static final int BUFFER_SIZE = 8192;
+
+    // Longest line passed on in one piece. Anything longer is passed on in pieces of this length
+    public static final int MAX_LINE_LENGTH = 16384;
+
+    // Longest a worker sleeps when none of its processes have output
+    public static final long MAX_IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final ExecutorService writers;
+    private final ExecutorService dispatchers;
+    private volatile boolean running = true;
+
+    public ProcessPump() {
+        this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    public ProcessPump(int threads) {
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker();
+            Thread thread = new Thread(worker, "MyServer-ProcessPump-" + (i + 1));
+            thread.setDaemon(true);
+            worker.thread = thread;
+            workers.add(worker);
+            thread.start();
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        this.writers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "MyServer-ProcessWriter-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger dispatcherCount = new AtomicInteger();
+        this.dispatchers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "MyServer-ProcessOutput-" + dispatcherCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Open a channel for sending commands to a process, written from our writer threads
+     *
+     * @param process Process to write to
+     * @param charset Charset of its input
+     * @return the channel
+     */
+    public CommandChannel openCommandChannel(Process process, Charset charset) {
+        return new CommandChannel(process.getOutputStream(), charset, writers);
+    }
+
+    /**
+     * Start pumping the output of a process
+     *
+     * @param process Process to read
+     * @param charset Charset of its output
+     * @param onLine  Called with each line of output, off the pump thread
+     * @param onExit  Called once the process has exited and every line has been passed on
+     */
+    public void register(Process process, Charset charset, Consumer<String> onLine, Runnable onExit) {
+        Worker worker = workers.get(0);
+        for (Worker w : workers) {
+            if (w.count.get() < worker.count.get()) {
+                worker = w;
+            }
+        }
+        worker.add(new Pumped(process, charset, onLine, onExit, dispatchers));
+    }
+
+    /**
+     * Stop all workers. Registered processes are left running
+     */
+    public void shutdown() {
+        running = false;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        writers.shutdown();
+        dispatchers.shutdown();
+    }
+
+    protected class Worker implements Runnable {
+        private final Queue<Pumped> added = new ConcurrentLinkedQueue<>();
+        private final List<Pumped> pumped = new ArrayList<>();
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        private final AtomicInteger count = new AtomicInteger();
+        private Thread thread;
+
+        void add(Pumped p) {
+            count.incrementAndGet();
+            added.add(p);
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            long idleWait = 0;
+            while (running) {
+                for (Pumped p; (p = added.poll()) != null; ) {
+                    pumped.add(p);
+                }
+
+                boolean active = false;
+                for (int i = pumped.size() - 1; i >= 0; i--) {
+                    Pumped p = pumped.get(i);
+                    try {
+                        if (p.pump(chars)) {
+                            active = true;
+                            continue;
+                        }
+                        if (p.process.isAlive()) {
+                            continue;
+                        }
+                        // Read anything written between the last check and exiting
+                        while (p.pump(chars)) {
+                            Thread.yield();
+                        }
+                    } catch (IOException ignored) {
+                    }
+
+                    pumped.remove(i);
+                    count.decrementAndGet();
+                    p.finish(chars);
+                }
+
+                if (active) {
+                    idleWait = 0;
+                } else {
+                    idleWait = Math.min(MAX_IDLE_WAIT, Math.max(TimeUnit.MILLISECONDS.toNanos(1), idleWait * 2));
+                    LockSupport.parkNanos(this, idleWait);
+                }
+            }
+        }
+    }
+
+    protected static class Pumped {
+        private final Process process;
+        private final InputStream input;
+        private final CharsetDecoder decoder;
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        private final StringBuilder line = new StringBuilder();
+        private final Consumer<String> onLine;
+        private final Runnable onExit;
+
+        // Lines waiting to be passed on, and whether a dispatcher is passing them on
+        private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean dispatching = new AtomicBoolean();
+        private final Executor executor;
+        private volatile boolean exited;
+        private boolean exitCalled;
+
+        Pumped(Process process, Charset charset, Consumer<String> onLine, Runnable onExit, Executor executor) {
+            this.process = process;
+            this.input = process.getInputStream();
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.onLine = onLine;
+            this.onExit = onExit;
+            this.executor = executor;
+        }
+
+        /**
+         * Read whatever output is available without blocking
+         *
+         * @return true if anything was read
+         */
+        boolean pump(CharBuffer chars) throws IOException {
+            int available = input.available();
+            if (available <= 0) {
+                return false;
+            }
+
+            int read = input.read(bytes.array(), bytes.arrayOffset() + bytes.position(), Math.min(available, bytes.remaining()));
+            if (read <= 0) {
+                return false;
+            }
+            bytes.position(bytes.position() + read);
+            bytes.flip();
+            decode(chars, false);
+            bytes.compact();
+            return true;
+        }
+
+        private void decode(CharBuffer chars, boolean endOfInput) {
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                chars.flip();
+                append(chars);
+                chars.clear();
+            } while (result.isOverflow());
+        }
+
+        private void append(CharBuffer chars) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    emit();
+                } else {
+                    line.append(c);
+                    if (line.length() >= MAX_LINE_LENGTH) {
+                        emit();
+                    }
+                }
+            }
+        }
+
+        private void emit() {
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') {
+                line.setLength(length - 1);
+            }
+            lines.add(line.toString());
+            line.setLength(0);
+            dispatch();
+        }
+
+        void finish(CharBuffer chars) {
+            bytes.flip();
+            decode(chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            append(chars);
+            chars.clear();
+            if (line.length() > 0) {
+                emit();
+            }
+
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+
+            exited = true;
+            dispatch();
+        }
+
+        private void dispatch() {
+            if (dispatching.compareAndSet(false, true)) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        /**
+         * Pass on queued lines, then the exit once every line is passed on
+         * <p>
+         * Only one dispatcher runs this at a time for each process.
+         */
+        private void deliver() {
+            do {
+                for (String text; (text = lines.poll()) != null; ) {
+                    try {
+                        onLine.accept(text);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+
+                if (exited && !exitCalled && lines.isEmpty()) {
+                    exitCalled = true;
+                    try {
+                        onExit.run();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                dispatching.set(false);
+            } while ((!lines.isEmpty() || (exited && !exitCalled)) && dispatching.compareAndSet(false, true));
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.api.templates.server.IServerTemplate;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provisions server artifacts such as downloaded, built or patched server jars
+ * <p>
+ * Work is single-flight: while an artifact is being provisioned every other request for the same type, version and
+ * source shares the one future, so concurrent first starts of a version cost a single build. Builds are run on a
+ * small dedicated executor rather than the scheduler.
+ * <p>
+ * At startup missing artifacts can be built ahead of time with {@link #warmUp(Collection)}. These builds are run one
+ * at a time so a user triggered build always has a free thread.
+ */
+@Getter
+public class ProvisioningService {
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private final ExecutorService executor;
+    private final ConcurrentMap<Key, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, Job> jobs = new ConcurrentHashMap<>();
+
+    // Warm-up progress
+    private final AtomicInteger warmUpTotal = new AtomicInteger();
+    private final AtomicInteger warmUpDone = new AtomicInteger();
+
+    public ProvisioningService() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    public ProvisioningService(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "MyServer-Provision-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Provision an artifact, joining any build already in progress for the same key
+     *
+     * @param type    Server type, such as paper
+     * @param version Server version
+     * @param source  Where the artifact comes from, or null
+     * @param builder Builds the artifact and returns its path
+     * @return future completed with the path of the artifact
+     */
+    public CompletableFuture<Path> provision(String type, String version, String source, Callable<Path> builder) {
+        Key key = new Key(type, version, source);
+
+        CompletableFuture<Path> future = inFlight.get(key);
+        if (future == null) {
+            CompletableFuture<Path> created = new CompletableFuture<>();
+            future = inFlight.putIfAbsent(key, created);
+            if (future == null) {
+                future = created;
+                Job job = new Job(type, version, source);
+                jobs.put(key, job);
+                created.whenComplete((path, e) -> {
+                    job.finish(e);
+                    inFlight.remove(key, created);
+                });
+                try {
+                    executor.execute(() -> {
+                        job.start();
+                        try {
+                            created.complete(builder.call());
+                        } catch (Throwable e) {
+                            created.completeExceptionally(e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    created.completeExceptionally(e);
+                }
+            }
+        }
+
+        // Callers get their own view so one cancelling doesn't cancel the build for everyone
+        return future.thenApply(path -> path);
+    }
+
+    /**
+     * Return true if the artifact is currently being provisioned
+     */
+    public boolean isProvisioning(String type, String version, String source) {
+        return inFlight.containsKey(new Key(type, version, source));
+    }
+
+    /**
+     * Provision any templates that are missing their artifacts in the background
+     * <p>
+     * Templates are handled one after another so at most one warm-up build runs at a time.
+     *
+     * @param templates Templates to check
+     * @return future completed once every template has been checked
+     */
+    public CompletableFuture<Void> warmUp(Collection<? extends IServerTemplate> templates) {
+        warmUpTotal.addAndGet(templates.size());
+
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (IServerTemplate template : templates) {
+            chain = chain
+                    .thenCompose(v -> template.isProvisioned()
+                            ? CompletableFuture.<Void>completedFuture(null)
+                            : template.provisionServer().handle((path, e) -> (Void) null))
+                    .whenComplete((v, e) -> warmUpDone.incrementAndGet());
+        }
+        return chain;
+    }
+
+    /**
+     * Return provisioning jobs ordered by type and version
+     */
+    public List<Job> getJobList() {
+        List<Job> result = new ArrayList<>(jobs.values());
+        result.sort(Comparator.comparing(Job::getType).thenComparing(Job::getVersion));
+        return result;
+    }
+
+    /**
+     * Stop accepting work
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public enum JobState {
+        QUEUED,
+        BUILDING,
+        READY,
+        FAILED
+    }
+
+    /**
+     * Progress of a single provisioning run
+     */
+    @Getter
+    public static class Job {
+        private final String type;
+        private final String version;
+        private final String source;
+        private final long queuedTime = System.currentTimeMillis();
+        private volatile JobState state = JobState.QUEUED;
+        private volatile long startTime;
+        private volatile long endTime;
+        private volatile String error;
+
+        public Job(String type, String version, String source) {
+            this.type = type;
+            this.version = version;
+            this.source = source;
+        }
+
+        private void start() {
+            startTime = System.currentTimeMillis();
+            state = JobState.BUILDING;
+        }
+
+        private void finish(Throwable e) {
+            endTime = System.currentTimeMillis();
+            if (e != null) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+                state = JobState.FAILED;
+            } else {
+                state = JobState.READY;
+            }
+        }
+
+        /**
+         * Return how long the job has been queued, building or took to build in milliseconds
+         */
+        public long getElapsed() {
+            switch (state) {
+                case QUEUED:
+                    return System.currentTimeMillis() - queuedTime;
+                case BUILDING:
+                    return System.currentTimeMillis() - startTime;
+                default:
+                    return endTime - (startTime != 0 ? startTime : queuedTime);
+            }
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class Key {
+        private final String type;
+        private final String version;
+        private final String source;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return type.equals(key.type) && version.equals(key.version) && Objects.equals(source, key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, version, source);
+        }
+    }
+}
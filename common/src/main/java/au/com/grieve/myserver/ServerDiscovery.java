@@ -0,0 +1,200 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.exceptions.NoSuchServerException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Discovers servers underneath a folder
+ * <p>
+ * A folder containing a server.yml is never descended into, and only the header fields of each server.yml are
+ * read. Headers are parsed in parallel.
+ */
+@Getter
+public class ServerDiscovery {
+    private static final YAMLFactory YAML_FACTORY = new YAMLFactory();
+
+    private final ForkJoinPool pool;
+
+    public ServerDiscovery() {
+        this(new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2)));
+    }
+
+    public ServerDiscovery(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Find all servers underneath a path
+     *
+     * @param root          Path to search
+     * @param depth         How deep to search
+     * @param folderVisitor Called for every folder that is a server or may contain servers
+     * @return headers of discovered servers
+     */
+    public List<ServerHeader> discover(Path root, int depth, Consumer<Path> folderVisitor) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return Collections.emptyList();
+        }
+
+        List<Path> candidates = new ArrayList<>();
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), depth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                folderVisitor.accept(dir);
+                if (Files.exists(dir.resolve("server.yml"))) {
+                    candidates.add(dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                // Folders at the maximum depth are passed as files
+                if (attrs.isDirectory() && Files.exists(file.resolve("server.yml"))) {
+                    folderVisitor.accept(file);
+                    candidates.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        try {
+            return pool.submit(() -> candidates.parallelStream()
+                    .map(path -> {
+                        try {
+                            return readHeader(path);
+                        } catch (IOException | NoSuchServerException e) {
+                            return null;
+                        }
+                    })
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList())
+            ).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Read only the header fields of a server.yml
+     *
+     * @param serverPath Path to server folder
+     * @return server header
+     */
+    public ServerHeader readHeader(Path serverPath) throws IOException, NoSuchServerException {
+        String uuid = null;
+        String template = null;
+        String name = null;
+
+        try (JsonParser parser = YAML_FACTORY.createParser(serverPath.resolve("server.yml").toFile())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new NoSuchServerException("Invalid server.yml in " + serverPath);
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME && (uuid == null || template == null || name == null)) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if (token.isScalarValue()) {
+                    switch (field) {
+                        case "uuid":
+                            uuid = parser.getText();
+                            break;
+                        case "template":
+                            template = parser.getText();
+                            break;
+                        case "name":
+                            name = parser.getText();
+                            break;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        if (uuid == null) {
+            throw new NoSuchServerException("Can't find field 'uuid'");
+        }
+
+        if (template == null) {
+            throw new IOException("Failed to find a template field");
+        }
+
+        try {
+            return new ServerHeader(serverPath, UUID.fromString(uuid), template, name);
+        } catch (IllegalArgumentException e) {
+            throw new NoSuchServerException("Invalid uuid: " + uuid);
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Header fields of a server.yml
+     */
+    @Getter
+    @ToString
+    @RequiredArgsConstructor
+    public static class ServerHeader {
+        private final Path serverPath;
+        private final UUID uuid;
+        private final String template;
+        private final String name;
+    }
+}
@@ -24,6 +24,8 @@
 
 package au.com.grieve.myserver;
 
+import au.com.grieve.myserver.api.ServerStatus;
+import au.com.grieve.myserver.api.ServerStatusListener;
 import au.com.grieve.myserver.api.templates.server.IServer;
 import au.com.grieve.myserver.exceptions.InvalidServerException;
 import au.com.grieve.myserver.exceptions.InvalidTemplateException;
@@ -31,30 +33,37 @@ import au.com.grieve.myserver.exceptions.NoSuchServerException;
 import au.com.grieve.myserver.exceptions.NoSuchTemplateException;
 import au.com.grieve.myserver.templates.server.Server;
 import au.com.grieve.myserver.templates.server.ServerTemplate;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.google.common.collect.MapMaker;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Getter
-@RequiredArgsConstructor
 public class ServerManager {
     public static ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
 
+    // How deep under the servers folder to look for a server.yml
+    public static final int SERVER_SEARCH_DEPTH = 5;
+
     // Weak references to Servers (for since instance purposes)
     private final ConcurrentMap<UUID, IServer> serverCache = new MapMaker()
             .weakValues()
@@ -62,10 +71,83 @@ public class ServerManager {
     // Strong references to Servers
     private final ConcurrentMap<UUID, IServer> serverInstances = new MapMaker()
             .makeMap();
-    private CompletableFuture<List<IServer>> getServersFuture;
+
+    // Registry of all known servers
+    private final ConcurrentMap<UUID, IServer> serversByUuid = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, IServer> serversByName = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, UUID> serversByPath = new ConcurrentHashMap<>();
+
+    // Watched folders used to keep the registry current
+    private final ConcurrentMap<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    private final ServerDiscovery serverDiscovery = new ServerDiscovery();
+    private final ServerPersister serverPersister;
+    private final HealthMonitor healthMonitor;
+    private final AdmissionController admissionController;
+    private final WarmPool warmPool;
+    private final ProcessPump processPump = new ProcessPump();
+    private final ProcessFreezer processFreezer = new ProcessFreezer();
+    private final ConsoleLogSink consoleLogSink = new ConsoleLogSink();
+
+    // Notified of every server status change
+    private final List<ServerStatusListener> statusListeners = new CopyOnWriteArrayList<>();
 
     private final MyServer myServer;
 
+    public ServerManager(MyServer myServer) {
+        this.myServer = myServer;
+        this.serverPersister = new ServerPersister(myServer);
+        this.healthMonitor = new HealthMonitor(this);
+        this.admissionController = new AdmissionController(myServer.getConfig().getLimitsConfig());
+        addStatusListener(admissionController::onStatusChange);
+        this.warmPool = new WarmPool(this);
+    }
+
+    /**
+     * Build the server registry and start watching the servers folder for changes
+     */
+    public void init() {
+        Path serversPath = getServersPath();
+
+        try {
+            Files.createDirectories(serversPath);
+            watchService = serversPath.getFileSystem().newWatchService();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        scanServers(serversPath, SERVER_SEARCH_DEPTH);
+
+        if (watchService != null) {
+            getMyServer().getScheduler().runAsync(this::processWatchEvents);
+        }
+
+        healthMonitor.start();
+        warmPool.start();
+    }
+
+    /**
+     * Stop watching the servers folder and write out any pending saves
+     */
+    public void shutdown() {
+        healthMonitor.stop();
+        warmPool.stop();
+        serverPersister.flushAll();
+
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+            }
+            watchService = null;
+        }
+        watchKeys.clear();
+        serverDiscovery.shutdown();
+        processPump.shutdown();
+        consoleLogSink.shutdown();
+    }
+
     /**
      * Return true if the server with name exists
      *
@@ -73,109 +155,352 @@ public class ServerManager {
      * @return true if exists
      */
     public boolean hasServer(String name) {
-        return getServers().stream()
-                .anyMatch(s -> s.getName().equals(name));
+        return serversByName.containsKey(name);
     }
 
     public boolean hasServer(UUID uuid) {
-        return getServers().stream()
-                .anyMatch(s -> s.getUuid().equals(uuid));
+        return serversByUuid.containsKey(uuid);
     }
 
     public IServer getServer(String name) throws NoSuchServerException {
-        return getServers().stream()
-                .filter(s -> s.getName().equals(name))
-                .findFirst()
-                .orElseThrow(() -> new NoSuchServerException("No such server name: " + name));
+        IServer server = serversByName.get(name);
+        if (server == null) {
+            throw new NoSuchServerException("No such server name: " + name);
+        }
+        return server;
     }
 
     public IServer getServer(UUID uuid) throws NoSuchServerException {
-        return getServers().stream()
-                .filter(s -> s.getUuid().equals(uuid))
-                .findFirst()
-                .orElseThrow(() -> new NoSuchServerException("No such server uuid: " + uuid.toString()));
+        IServer server = serversByUuid.get(uuid);
+        if (server == null) {
+            throw new NoSuchServerException("No such server uuid: " + uuid.toString());
+        }
+        return server;
     }
 
     /**
      * Enumerate all servers
      *
-     * @return list of servers
+     * @return snapshot list of servers
      */
     public List<IServer> getServers() {
-        if (getServersFuture == null) {
-            CompletableFuture<List<IServer>> getServersFuture = new CompletableFuture<>();
-            this.getServersFuture = getServersFuture;
-            getMyServer().getScheduler().runAsync(() -> {
-                List<IServer> result = new ArrayList<>();
-
-                if (!myServer.getConfig().getFolderConfig().getServersPath().toFile().exists()) {
-                    getServersFuture.complete(result);
-                    return;
+        return new ArrayList<>(serversByUuid.values());
+    }
+
+    /**
+     * Register a listener for server status changes
+     *
+     * @param listener Listener to add
+     */
+    public void addStatusListener(ServerStatusListener listener) {
+        statusListeners.add(listener);
+    }
+
+    public void removeStatusListener(ServerStatusListener listener) {
+        statusListeners.remove(listener);
+    }
+
+    /**
+     * Publish a server status change to all listeners
+     *
+     * @param server   Server that changed
+     * @param previous Status before the change
+     * @param status   Status after the change
+     */
+    public void fireStatusChange(IServer server, ServerStatus previous, ServerStatus status) {
+        for (ServerStatusListener listener : statusListeners) {
+            try {
+                listener.onStatusChange(server, previous, status);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Add a server to the registry, replacing any previous entry for the same server
+     *
+     * @param server Server to add
+     */
+    public void registerServer(IServer server) {
+        IServer previous = serversByUuid.put(server.getUuid(), server);
+        if (previous != null) {
+            // Drop any stale name pointing at this server
+            serversByName.entrySet().removeIf(e -> (e.getValue() == previous || e.getValue() == server)
+                    && !e.getKey().equals(server.getName()));
+        }
+
+        if (server.getName() != null) {
+            serversByName.put(server.getName(), server);
+        }
+        serversByPath.put(server.getServerPath(), server.getUuid());
+    }
+
+    /**
+     * Remove a server from the registry
+     *
+     * @param server Server to remove
+     */
+    public void unregisterServer(IServer server) {
+        serversByUuid.remove(server.getUuid(), server);
+        serversByName.values().removeIf(s -> s == server);
+        serversByPath.remove(server.getServerPath(), server.getUuid());
+        server.clearRenderedFiles();
+        serverPersister.forget(server);
+    }
+
+    /**
+     * Remove any servers located at or under a path
+     *
+     * @param path Path that was removed
+     */
+    protected void unregisterServers(Path path) {
+        for (Map.Entry<Path, UUID> entry : new ArrayList<>(serversByPath.entrySet())) {
+            if (entry.getKey().startsWith(path)) {
+                IServer server = serversByUuid.get(entry.getValue());
+                if (server != null) {
+                    unregisterServer(server);
+                } else {
+                    serversByPath.remove(entry.getKey());
                 }
+            }
+        }
+    }
+
+    protected Path getServersPath() {
+        return myServer.getConfig().getFolderConfig().getServersPath();
+    }
+
+    /**
+     * Find and register all servers underneath a path, watching the folders that may contain servers
+     *
+     * @param root  Path to search
+     * @param depth How deep to search
+     */
+    protected void scanServers(Path root, int depth) {
+        List<ServerDiscovery.ServerHeader> headers;
+        try {
+            headers = serverDiscovery.discover(root, depth, this::watchPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
 
-                try (Stream<Path> walk = Files.walk(myServer.getConfig().getFolderConfig().getServersPath(), 5)) {
-                    Path lastPath = null;
-                    for (Path path : walk
-                            .filter(Files::isDirectory)
-                            .filter(p -> p.resolve("server.yml").toFile().exists())
-                            .collect(Collectors.toList())) {
-
-                        // If a server.yml file is found in a directory then prune out all child directories
-                        if (lastPath == null || !path.startsWith(lastPath)) {
-                            lastPath = path;
-
-                            try {
-                                result.add(loadServer(path));
-                            } catch (IOException | NoSuchTemplateException | NoSuchServerException | InvalidServerException | InvalidTemplateException ignored) {
-                            }
+        // Templates can't be loaded concurrently so make sure they are all loaded first
+        for (String templateName : headers.stream()
+                .map(ServerDiscovery.ServerHeader::getTemplate)
+                .collect(Collectors.toSet())) {
+            try {
+                getMyServer().getTemplateManager().getTemplate(ServerTemplate.class, templateName);
+            } catch (IOException | NoSuchTemplateException | InvalidTemplateException ignored) {
+            }
+        }
+
+        // Servers are loaded in parallel but registered from this thread, as registering may touch the platform
+        List<IServer> servers;
+        try {
+            servers = serverDiscovery.getPool().submit(() -> headers.parallelStream()
+                    .map(header -> {
+                        try {
+                            return loadServer(header);
+                        } catch (IOException | NoSuchTemplateException | InvalidServerException | InvalidTemplateException e) {
+                            return null;
                         }
-                    }
+                    })
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList())
+            ).get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return;
+        }
 
-                } catch (IOException ignored) {
-                }
-                getServersFuture.complete(result);
-            });
+        for (IServer server : servers) {
+            registerServer(server);
+        }
+    }
+
+    /**
+     * Watch a folder for changes
+     *
+     * @param path Path to watch
+     */
+    protected void watchPath(Path path) {
+        if (watchService == null || watchKeys.containsValue(path)) {
+            return;
         }
 
-        List<IServer> result = new ArrayList<>();
         try {
-            result.addAll(getServersFuture.get());
-        } catch (ExecutionException | InterruptedException ignored) {
+            watchKeys.put(path.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY), path);
+        } catch (IOException | ClosedWatchServiceException ignored) {
         }
-        getServersFuture = null;
-        return result;
     }
 
     /**
-     * Load a server from a stream
+     * Stop watching all folders underneath a path
      *
-     * @param serverPath Path to server folder
+     * @param path Path to stop watching under
      */
-    public IServer loadServer(Path serverPath) throws IOException, NoSuchTemplateException, NoSuchServerException, InvalidServerException, InvalidTemplateException {
-        JsonNode rootNode = MAPPER.readTree(serverPath.resolve("server.yml").toFile());
+    protected void unwatchChildren(Path path) {
+        for (Map.Entry<WatchKey, Path> entry : new ArrayList<>(watchKeys.entrySet())) {
+            if (!entry.getValue().equals(path) && entry.getValue().startsWith(path)) {
+                entry.getKey().cancel();
+                watchKeys.remove(entry.getKey());
+            }
+        }
+    }
 
-        if (!rootNode.has("uuid")) {
-            throw new NoSuchServerException("Can't find field 'uuid'");
+    /**
+     * Return true if path is a server folder or is inside one
+     *
+     * @param path Path to check
+     * @return true if part of a server
+     */
+    protected boolean isInsideServer(Path path) {
+        for (Path p = path; p != null; p = p.getParent()) {
+            if (serversByPath.containsKey(p)) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        UUID uuid = UUID.fromString(rootNode.get("uuid").asText());
+    /**
+     * Handle change events from the servers folder until the watcher is closed
+     */
+    protected void processWatchEvents() {
+        WatchService watchService = this.watchService;
 
-        // Check if we already have this server in use and return that instead
-        if (serverCache.containsKey(uuid)) {
-            // TODO update instance with new data maybe
-            return serverCache.get(uuid);
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = watchKeys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rescanServers();
+                    continue;
+                }
+
+                if (dir != null) {
+                    handleWatchEvent(event.kind(), dir, dir.resolve((Path) event.context()));
+                }
+            }
+
+            if (!key.reset()) {
+                watchKeys.remove(key);
+            }
         }
+    }
+
+    /**
+     * Update the registry for a single change
+     *
+     * @param kind Kind of change
+     * @param dir  Watched folder the change happened in
+     * @param path Path that changed
+     */
+    protected void handleWatchEvent(WatchEvent.Kind<?> kind, Path dir, Path path) {
+        if (path.getFileName().toString().equals("server.yml")) {
+            if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                unregisterServers(dir);
+                return;
+            }
 
-        if (!rootNode.has("template")) {
-            throw new IOException("Failed to find a template field");
+            UUID uuid = serversByPath.get(dir);
+            IServer known = uuid != null ? serversByUuid.get(uuid) : null;
+            if (known != null) {
+                // Our own saves are already what the server holds
+                if (serverPersister.isOwnWrite(path)) {
+                    return;
+                }
+
+                // Edited outside of us. Reload it, registering under its new name
+                try {
+                    if (serverDiscovery.readHeader(dir).getUuid().equals(uuid)) {
+                        registerServer(known.load());
+                        return;
+                    }
+                } catch (IOException | NoSuchServerException | InvalidServerException e) {
+                    e.printStackTrace();
+                    return;
+                }
+
+                // A different server now lives here
+                unregisterServer(known);
+            }
+
+            try {
+                registerServer(loadServer(dir));
+                unwatchChildren(dir);
+            } catch (IOException | NoSuchTemplateException | NoSuchServerException | InvalidServerException | InvalidTemplateException ignored) {
+            }
+            return;
+        }
+
+        // Nothing else inside a server folder is of interest
+        if (serversByPath.containsKey(dir)) {
+            return;
+        }
+
+        if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            unregisterServers(path);
+            unwatchChildren(path);
+            return;
+        }
+
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path) && !isInsideServer(path)) {
+            int depth = SERVER_SEARCH_DEPTH - getServersPath().relativize(path).getNameCount();
+            if (depth >= 0) {
+                scanServers(path, depth);
+            }
+        }
+    }
+
+    /**
+     * Rescan the entire servers folder, dropping servers that have gone away
+     */
+    protected void rescanServers() {
+        for (Path path : new ArrayList<>(serversByPath.keySet())) {
+            if (!Files.exists(path.resolve("server.yml"))) {
+                unregisterServers(path);
+            }
         }
+        scanServers(getServersPath(), SERVER_SEARCH_DEPTH);
+    }
 
-        String templateName = rootNode.get("template").asText();
+    /**
+     * Load a server from a stream
+     *
+     * @param serverPath Path to server folder
+     */
+    public IServer loadServer(Path serverPath) throws IOException, NoSuchTemplateException, NoSuchServerException, InvalidServerException, InvalidTemplateException {
+        return loadServer(serverDiscovery.readHeader(serverPath));
+    }
+
+    /**
+     * Load a server from its already read header
+     *
+     * @param header Header of server
+     */
+    public IServer loadServer(ServerDiscovery.ServerHeader header) throws IOException, NoSuchTemplateException, InvalidServerException, InvalidTemplateException {
+        // Check if we already have this server in use and return that instead
+        if (serverCache.containsKey(header.getUuid())) {
+            // TODO update instance with new data maybe
+            return serverCache.get(header.getUuid());
+        }
 
-        ServerTemplate template = getMyServer().getTemplateManager().getTemplate(ServerTemplate.class, templateName);
+        ServerTemplate template = getMyServer().getTemplateManager().getTemplate(ServerTemplate.class, header.getTemplate());
 
-        Server server = template.loadServer(serverPath);
-        serverCache.put(uuid, server);
+        Server server = template.loadServer(header.getServerPath());
+        serverCache.put(header.getUuid(), server);
         return server;
     }
 
@@ -0,0 +1,192 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.api.templates.server.IServer;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves servers in the background
+ * <p>
+ * Repeated saves of the same server within a short window are coalesced into a single write. Files are written to a
+ * temporary file, synced to disk and then renamed over the original so a crash can never leave a truncated file.
+ */
+@Getter
+public class ServerPersister {
+    // How long in milliseconds to wait for further saves before writing
+    public static final long SAVE_DELAY = 500;
+
+    private final MyServer myServer;
+    private final long delay;
+    private final ConcurrentMap<Path, IServer> pending = new ConcurrentHashMap<>();
+
+    // What we last wrote to each file, so our own writes can be told apart from outside edits
+    private final ConcurrentMap<Path, byte[]> written = new ConcurrentHashMap<>();
+
+    public ServerPersister(MyServer myServer) {
+        this(myServer, SAVE_DELAY);
+    }
+
+    public ServerPersister(MyServer myServer, long delay) {
+        this.myServer = myServer;
+        this.delay = delay;
+    }
+
+    /**
+     * Save a server after a short delay
+     *
+     * @param server Server to save
+     */
+    public void schedule(IServer server) {
+        Path path = server.getServerPath();
+        if (pending.put(path, server) == null) {
+            myServer.getScheduler().schedule(() -> flush(path), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Cancel a pending save
+     *
+     * @param server Server to cancel
+     */
+    public void cancel(IServer server) {
+        pending.remove(server.getServerPath(), server);
+    }
+
+    /**
+     * Write out a pending save now
+     *
+     * @param path Path of server
+     */
+    protected void flush(Path path) {
+        IServer server = pending.remove(path);
+        if (server == null) {
+            return;
+        }
+
+        try {
+            server.saveNow();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replace a file atomically, remembering what was written
+     *
+     * @param target File to write
+     * @param data   Content to write
+     */
+    public void write(Path target, byte[] data) throws IOException {
+        // Remembered first, as a watcher may see the file before we return
+        written.put(target, data);
+        writeAtomically(target, data);
+    }
+
+    /**
+     * Return true if a file still holds what we last wrote to it
+     *
+     * @param target File to check
+     * @return true if unchanged since we wrote it
+     */
+    public boolean isOwnWrite(Path target) {
+        byte[] data = written.get(target);
+        if (data == null) {
+            return false;
+        }
+
+        try {
+            return Arrays.equals(Files.readAllBytes(target), data);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Forget what was written for a server
+     *
+     * @param server Server to forget
+     */
+    public void forget(IServer server) {
+        written.remove(server.getServerPath().resolve("server.yml"));
+    }
+
+    /**
+     * Write out all pending saves now
+     */
+    public void flushAll() {
+        for (Path path : new ArrayList<>(pending.keySet())) {
+            flush(path);
+        }
+    }
+
+    /**
+     * Replace a file with new content such that it is either fully written or left as it was
+     *
+     * @param target File to write
+     * @param data   Content to write
+     */
+    public static void writeAtomically(Path target, byte[] data) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, "." + target.getFileName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        // Make sure the rename itself is on disk. Not all platforms allow a directory to be opened
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -24,26 +24,57 @@
 
 package au.com.grieve.myserver;
 
+import au.com.grieve.myserver.exceptions.PlaceholderLoopException;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 /**
  * We allow strings to be registered along with their values and given an input and output stream we will perform
  * substitutions where the variable is found encased in double brackets like {{variable}}
+ * <p>
+ * Variables referencing other variables are resolved once, when first reached from a template, and input is rendered
+ * in a single pass using {@link CompiledTemplate}. A variable that references itself fails the render with a
+ * {@link PlaceholderLoopException}.
  */
 @RequiredArgsConstructor
 public class SimpleTemplater {
     protected final Map<String, String> variables = new HashMap<>();
 
+    // Variables whose value changes without meaning the output has changed, such as a timestamp
+    protected final Set<String> volatileVariables = new HashSet<>();
+
+    @Getter
+    private final Charset charset = Charset.defaultCharset();
+
+    // Variables with nested placeholders replaced, filled as templates need them. Cleared after registering
+    private final Map<String, String> resolved = new HashMap<>();
+    private final Map<String, String> stableResolved = new HashMap<>();
+    private Map<String, String> stableVariables;
+    private final Map<String, Set<String>> variableReferences = new HashMap<>();
+
+    // Reused between renders
+    private final StringBuilder buffer = new StringBuilder();
+
     public SimpleTemplater register(String key, String value) {
         variables.put(key, value);
+        reset();
         return this;
     }
 
@@ -51,41 +82,127 @@ public class SimpleTemplater {
         for (Map.Entry<String, String> entry : tags.entrySet()) {
             variables.put(entry.getKey(), entry.getValue());
         }
+        reset();
         return this;
     }
 
+    /**
+     * Register a variable that is ignored when deciding if output has changed
+     *
+     * @param key   name of variable
+     * @param value value of variable
+     * @return ourself for chaining
+     */
+    public SimpleTemplater registerVolatile(String key, String value) {
+        volatileVariables.add(key);
+        return register(key, value);
+    }
+
+    protected void reset() {
+        resolved.clear();
+        stableResolved.clear();
+        stableVariables = null;
+        variableReferences.clear();
+    }
+
+    /**
+     * Resolve the named variables
+     *
+     * @param names variables to resolve
+     * @return resolved variables, holding at least those named
+     * @throws PlaceholderLoopException if a variable references itself
+     */
+    protected Map<String, String> resolve(Collection<String> names) throws PlaceholderLoopException {
+        CompiledTemplate.resolve(names, variables, resolved);
+        return resolved;
+    }
+
+    /**
+     * Resolve the named variables without any volatile variables
+     *
+     * @param names variables to resolve
+     * @return resolved variables, holding at least those named
+     * @throws PlaceholderLoopException if a variable references itself
+     */
+    protected Map<String, String> resolveStable(Collection<String> names) throws PlaceholderLoopException {
+        if (volatileVariables.isEmpty()) {
+            return resolve(names);
+        }
+
+        if (stableVariables == null) {
+            stableVariables = new HashMap<>(variables);
+            stableVariables.keySet().removeAll(volatileVariables);
+        }
+        CompiledTemplate.resolve(names, stableVariables, stableResolved);
+        return stableResolved;
+    }
+
+    /**
+     * Return every variable a template depends on, including those referenced by the values of other variables
+     *
+     * @param template the template
+     * @return names of variables
+     */
+    public Set<String> getDependencies(CompiledTemplate template) {
+        Set<String> result = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(template.getReferences());
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (result.add(name) && variables.get(name) != null) {
+                pending.addAll(variableReferences.computeIfAbsent(name,
+                        k -> CompiledTemplate.compile(variables.get(k)).getReferences()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the values of every non-volatile variable a template depends on
+     * <p>
+     * If these are unchanged between two renders then so is the output
+     *
+     * @param template the template
+     * @return map of variable names to values
+     * @throws PlaceholderLoopException if a variable references itself
+     */
+    public Map<String, String> getStableValues(CompiledTemplate template) throws PlaceholderLoopException {
+        Set<String> names = getDependencies(template);
+        names.removeAll(volatileVariables);
+
+        Map<String, String> values = resolveStable(names);
+        Map<String, String> result = new HashMap<>();
+        for (String name : names) {
+            result.put(name, values.get(name));
+        }
+        return result;
+    }
+
     /**
      * Replace parameters in a String returning the updated String
      *
      * @param input the original string
      * @return the updated string
+     * @throws PlaceholderLoopException if a variable references itself
      */
-    public String replace(String input) {
-        Pattern p = Pattern.compile("\\{\\{ *([^} ]+) *}}");
-
-        for (int maxTries = 20; maxTries > 0; maxTries--) {
-            Matcher m = p.matcher(input);
-            StringBuffer sb = new StringBuffer(input.length());
-
-            boolean found = false;
-            while (m.find()) {
-                String tag = m.group(1);
-                if (!variables.containsKey(tag) || variables.get(tag) == null) {
-                    m.appendReplacement(sb, Matcher.quoteReplacement(m.group(0)));
-                } else {
-                    found = true;
-                    m.appendReplacement(sb, Matcher.quoteReplacement(variables.get(tag)));
-                }
-            }
+    public String replace(String input) throws PlaceholderLoopException {
+        return render(CompiledTemplate.compile(input)).toString();
+    }
 
-            if (!found) {
-                return input;
-            }
+    /**
+     * Render a compiled template into the reusable buffer
+     *
+     * @param template the template
+     * @return the buffer holding the result, valid until the next render
+     * @throws PlaceholderLoopException if a variable references itself
+     */
+    public CharSequence render(CompiledTemplate template) throws PlaceholderLoopException {
+        return render(template, resolve(template.getReferences()));
+    }
 
-            m.appendTail(sb);
-            input = sb.toString();
-        }
-        throw new RuntimeException("Too many recursions in Placeholder");
+    protected CharSequence render(CompiledTemplate template, Map<String, String> values) {
+        buffer.setLength(0);
+        template.render(values, buffer);
+        return buffer;
     }
 
     /**
@@ -94,13 +211,64 @@ public class SimpleTemplater {
      * @param in  the input
      * @param out the output
      * @return ourself for chaining
-     * @throws IOException IOException
+     * @throws IOException              IOException
+     * @throws PlaceholderLoopException if a variable references itself
      */
-    public SimpleTemplater process(BufferedReader in, BufferedWriter out) throws IOException {
-        for (String line; ((line = in.readLine()) != null); ) {
-            out.write(replace(line));
-            out.newLine();
+    public SimpleTemplater process(BufferedReader in, BufferedWriter out) throws IOException, PlaceholderLoopException {
+        StringBuilder sb = new StringBuilder();
+        char[] chars = new char[8192];
+        for (int read; (read = in.read(chars)) != -1; ) {
+            sb.append(chars, 0, read);
         }
+
+        write(render(CompiledTemplate.compile(sb.toString())), out);
         return this;
     }
+
+    /**
+     * Replace strings in a file and write to another file
+     * <p>
+     * The parsed input file is cached until it changes, and the output file is left untouched if its content would
+     * not change. Callers wanting to skip renders whose only change is a volatile variable compare
+     * {@link #getStableValues(CompiledTemplate)} themselves.
+     *
+     * @param in  the input file
+     * @param out the output file
+     * @return ourself for chaining
+     * @throws IOException              IOException
+     * @throws PlaceholderLoopException if a variable references itself
+     */
+    public SimpleTemplater process(Path in, Path out) throws IOException, PlaceholderLoopException {
+        CompiledTemplate template = CompiledTemplate.fromFile(in, charset);
+        byte[] content = render(template).toString().getBytes(charset);
+
+        if (isUnchanged(out, content)) {
+            return this;
+        }
+
+        Files.write(out, content);
+        return this;
+    }
+
+    /**
+     * Return true if a file already holds the given content
+     *
+     * @param path    file to check
+     * @param content new content
+     * @return true if unchanged
+     */
+    protected boolean isUnchanged(Path path, byte[] content) throws IOException {
+        try {
+            if (Files.size(path) != content.length) {
+                return false;
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return Arrays.equals(Files.readAllBytes(path), content);
+    }
+
+    protected void write(CharSequence content, Writer out) throws IOException {
+        out.append(content);
+    }
 }
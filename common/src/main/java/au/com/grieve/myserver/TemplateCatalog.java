@@ -0,0 +1,298 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.exceptions.InvalidTemplateException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Catalog of templates found under the template folder
+ * <p>
+ * Each template.yml is parsed once and then only re-parsed when its modification time or size changes. The folder
+ * is revalidated when the catalog is invalidated, which is done by a WatchService when watching, otherwise at most
+ * once every refresh interval.
+ */
+@Getter
+public class TemplateCatalog {
+    public static ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
+
+    // How deep under the template folder to look for a template.yml
+    public static final int TEMPLATE_SEARCH_DEPTH = 10;
+
+    private final Path root;
+    private final long refreshInterval;
+    private final Consumer<String> changeListener;
+
+    private final ConcurrentMap<Path, Entry> entriesByPath = new ConcurrentHashMap<>();
+    private volatile Map<String, Entry> entries = Collections.emptyMap();
+
+    private volatile boolean dirty = true;
+    private volatile long lastRefresh;
+
+    private final ConcurrentMap<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    /**
+     * Create a catalog
+     *
+     * @param root            Template folder
+     * @param refreshInterval Milliseconds between revalidations when not watching
+     * @param changeListener  Called with the name of each template that has changed or gone away
+     */
+    public TemplateCatalog(Path root, long refreshInterval, Consumer<String> changeListener) {
+        this.root = root;
+        this.refreshInterval = refreshInterval;
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Return the current catalog, revalidating it first if needed
+     *
+     * @return map of template names to entries
+     */
+    public Map<String, Entry> getEntries() {
+        if (dirty || (watchService == null && System.currentTimeMillis() - lastRefresh > refreshInterval)) {
+            refresh();
+        }
+        return entries;
+    }
+
+    /**
+     * Return a catalog entry by name
+     *
+     * @param name Name of template
+     * @return entry else null
+     */
+    public Entry getEntry(String name) {
+        return getEntries().get(name);
+    }
+
+    /**
+     * Return the catalog entry of a template path if it is still current
+     *
+     * @param path Path of template
+     * @return entry else null
+     */
+    public Entry getEntry(Path path) {
+        Entry entry = entriesByPath.get(path);
+        return entry != null && entry.isCurrent() ? entry : null;
+    }
+
+    /**
+     * Mark the catalog as needing revalidation
+     */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * Revalidate the catalog, parsing only new or changed template.yml files
+     */
+    public synchronized void refresh() {
+        dirty = false;
+        lastRefresh = System.currentTimeMillis();
+
+        Map<String, Entry> result = new HashMap<>();
+        Set<Path> found = new HashSet<>();
+
+        if (Files.exists(root)) {
+            try {
+                Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), TEMPLATE_SEARCH_DEPTH, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        watchPath(dir);
+
+                        Path file = dir.resolve("template.yml");
+                        if (!Files.exists(file)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        // If a template.yml file is found in a directory then prune out all child directories
+                        found.add(dir);
+                        try {
+                            Entry entry = entriesByPath.get(dir);
+                            if (entry == null || !entry.isCurrent()) {
+                                Entry previous = entry;
+                                entry = readEntry(dir);
+                                entriesByPath.put(dir, entry);
+
+                                if (previous != null) {
+                                    CompiledTemplate.evict(dir);
+                                    changeListener.accept(previous.getName());
+                                }
+                            }
+                            result.put(entry.getName(), entry);
+                        } catch (InvalidTemplateException | IOException e) {
+                            e.printStackTrace();
+                        }
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Forget templates that have gone away
+        for (Map.Entry<Path, Entry> entry : entriesByPath.entrySet()) {
+            if (!found.contains(entry.getKey())) {
+                entriesByPath.remove(entry.getKey());
+                CompiledTemplate.evict(entry.getKey());
+                changeListener.accept(entry.getValue().getName());
+            }
+        }
+
+        entries = Collections.unmodifiableMap(result);
+    }
+
+    protected Entry readEntry(Path path) throws IOException, InvalidTemplateException {
+        Path file = path.resolve("template.yml");
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        JsonNode node = MAPPER.readTree(file.toFile());
+
+        if (!node.has("name")) {
+            throw new InvalidTemplateException("Failed to find a name field");
+        }
+
+        return new Entry(node.get("name").asText(), path, node, attrs.lastModifiedTime().toMillis(), attrs.size());
+    }
+
+    /**
+     * Start watching the template folder, invalidating the catalog on any change
+     *
+     * @param runner Used to run the watch loop
+     */
+    public void watch(Consumer<Runnable> runner) throws IOException {
+        Files.createDirectories(root);
+        watchService = root.getFileSystem().newWatchService();
+        dirty = true;
+
+        WatchService watchService = this.watchService;
+        runner.accept(() -> {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watchService.take();
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                }
+
+                key.pollEvents();
+                invalidate();
+
+                if (!key.reset()) {
+                    watchKeys.remove(key);
+                }
+            }
+        });
+    }
+
+    protected void watchPath(Path path) {
+        if (watchService == null || watchKeys.containsValue(path)) {
+            return;
+        }
+
+        try {
+            watchKeys.put(path.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY), path);
+        } catch (IOException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    /**
+     * Stop watching the template folder
+     */
+    public void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+            }
+            watchService = null;
+        }
+        watchKeys.clear();
+    }
+
+    /**
+     * A parsed template.yml
+     */
+    @Getter
+    @ToString
+    @RequiredArgsConstructor
+    public static class Entry {
+        private final String name;
+        private final Path path;
+        private final JsonNode node;
+        private final long lastModified;
+        private final long size;
+
+        /**
+         * Return true if the template.yml on disk has not changed since it was parsed
+         *
+         * @return true if current
+         */
+        public boolean isCurrent() {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path.resolve("template.yml"), BasicFileAttributes.class);
+                return attrs.lastModifiedTime().toMillis() == lastModified && attrs.size() == size;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -32,13 +32,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.google.common.collect.MapMaker;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.file.FileVisitOption;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -47,17 +43,17 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Management Class for Templates
  */
 @Getter
-@RequiredArgsConstructor
 public class TemplateManager {
     public static ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
 
+    // How long in milliseconds before the template catalog is revalidated when not being watched
+    public static final long CATALOG_REFRESH_INTERVAL = 5000;
+
     private final Map<String, Class<? extends ITemplate>> registeredTemplateTypes = new HashMap<>();
     private final ConcurrentMap<String, ITemplate> templateInstances = new MapMaker()
             .weakValues()
@@ -65,6 +61,31 @@ public class TemplateManager {
     private final Queue<String> templateLocks = new ConcurrentLinkedQueue<>();
 
     private final MyServer myServer;
+    private final TemplateCatalog templateCatalog;
+
+    public TemplateManager(MyServer myServer) {
+        this.myServer = myServer;
+        this.templateCatalog = new TemplateCatalog(myServer.getConfig().getFolderConfig().getTemplatePath(),
+                CATALOG_REFRESH_INTERVAL, templateInstances::remove);
+    }
+
+    /**
+     * Start watching the template folder for changes
+     */
+    public void init() {
+        try {
+            templateCatalog.watch(r -> getMyServer().getScheduler().runAsync(r));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stop watching the template folder
+     */
+    public void shutdown() {
+        templateCatalog.close();
+    }
 
     /**
      * Return a template by name
@@ -75,21 +96,21 @@ public class TemplateManager {
      * @return the returned template else null
      */
     public <T extends ITemplate> T getTemplate(Class<T> typeClass, String name) throws NoSuchTemplateException, InvalidTemplateException, IOException {
+        // Look for matching template
+        TemplateCatalog.Entry entry = templateCatalog.getEntry(name);
+
+        if (entry == null) {
+            throw new NoSuchTemplateException("No such template: " + name);
+        }
+
         // Check if we already have an instance in use
         if (templateInstances.containsKey(name)) {
             //noinspection unchecked
             return (T) templateInstances.get(name);
         }
 
-        // Look for matching template
-        Path templatePath = getTemplatePaths().get(name);
-
-        if (templatePath == null) {
-            throw new NoSuchTemplateException("No such template: " + name);
-        }
-
         // Load the template
-        ITemplate template = loadTemplate(templatePath);
+        ITemplate template = loadTemplate(entry.getPath());
 
         if (!typeClass.isAssignableFrom(template.getClass())) {
             throw new InvalidTemplateException("Template '" + name + "' is not of type '" + typeClass);
@@ -106,38 +127,24 @@ public class TemplateManager {
      */
     protected Map<String, Path> getTemplatePaths() {
         Map<String, Path> result = new HashMap<>();
-
-        if (!myServer.getConfig().getFolderConfig().getTemplatePath().toFile().exists()) {
-            return result;
+        for (TemplateCatalog.Entry entry : templateCatalog.getEntries().values()) {
+            result.put(entry.getName(), entry.getPath());
         }
+        return result;
+    }
 
-        try (Stream<Path> walk = Files.walk(myServer.getConfig().getFolderConfig().getTemplatePath(), 10, FileVisitOption.FOLLOW_LINKS)) {
-            Path lastPath = null;
-            for (Path path : walk
-                    .filter(Files::isDirectory)
-                    .filter(p -> p.resolve("template.yml").toFile().exists())
-                    .collect(Collectors.toList())) {
-
-                // If a template.yml file is found in a directory then prune out all child directories
-                if (lastPath == null || !path.startsWith(lastPath)) {
-                    lastPath = path;
-                    try {
-                        JsonNode node = MAPPER.readTree(new FileInputStream(path.resolve("template.yml").toFile()));
-                        if (!node.has("name")) {
-                            throw new InvalidTemplateException("Failed to find a name field");
-                        }
-
-                        result.put(node.get("name").asText(), path);
-                    } catch (InvalidTemplateException | IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Return the parsed template.yml of a template, using the catalog where it is current
+     *
+     * @param path Path of template
+     * @return root node
+     */
+    public JsonNode readTemplateNode(Path path) throws IOException {
+        TemplateCatalog.Entry entry = templateCatalog.getEntry(path);
+        if (entry != null) {
+            return entry.getNode();
         }
-
-        return result;
+        return MAPPER.readTree(path.resolve("template.yml").toFile());
     }
 
     /**
@@ -150,10 +157,12 @@ public class TemplateManager {
     public <T extends ITemplate> List<T> getTemplates(Class<T> typeClass) {
         List<T> result = new ArrayList<>();
 
-        for (Map.Entry<String, Path> entry : getTemplatePaths().entrySet()) {
-            ITemplate template;
+        for (TemplateCatalog.Entry entry : templateCatalog.getEntries().values()) {
+            ITemplate template = templateInstances.get(entry.getName());
             try {
-                template = loadTemplate(entry.getValue());
+                if (template == null) {
+                    template = loadTemplate(entry.getPath());
+                }
             } catch (IOException | InvalidTemplateException e) {
                 e.printStackTrace();
                 continue;
@@ -181,7 +190,7 @@ public class TemplateManager {
      * @param path Path of template
      */
     public ITemplate loadTemplate(Path path) throws IOException, InvalidTemplateException {
-        JsonNode rootNode = MAPPER.readTree(path.resolve("template.yml").toFile());
+        JsonNode rootNode = readTemplateNode(path);
 
         if (!rootNode.has("name")) {
             throw new InvalidTemplateException("Failed to find a name field");
@@ -0,0 +1,302 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches lines of server output against a set of triggers
+ * <p>
+ * Most output matches no trigger, so the cost of a miss is kept low. Each trigger has a literal that any match must
+ * contain, one per alternative, found by looking at its pattern. Its regex is only run when the line contains one
+ * of them. Triggers without such literals are always run.
+ */
+@Getter
+public class TriggerMatcher {
+    public static final TriggerMatcher EMPTY = new TriggerMatcher(Collections.emptyList());
+
+    private final List<Trigger> triggers;
+    private final List<Trigger> literalTriggers = new ArrayList<>();
+    private final List<Trigger> otherTriggers = new ArrayList<>();
+
+    public TriggerMatcher(List<Trigger> triggers) {
+        this.triggers = Collections.unmodifiableList(new ArrayList<>(triggers));
+        for (Trigger trigger : triggers) {
+            (trigger.getLiterals() != null ? literalTriggers : otherTriggers).add(trigger);
+        }
+    }
+
+    public boolean isEmpty() {
+        return triggers.isEmpty();
+    }
+
+    /**
+     * Pass each trigger that matches line to consumer along with its matcher
+     *
+     * @param line     Line of output
+     * @param consumer Called for each matching trigger
+     */
+    public void match(String line, BiConsumer<Trigger, Matcher> consumer) {
+        for (Trigger trigger : literalTriggers) {
+            if (trigger.mayMatch(line)) {
+                Matcher matcher = trigger.getPattern().matcher(line);
+                if (matcher.find()) {
+                    consumer.accept(trigger, matcher);
+                }
+            }
+        }
+
+        for (Trigger trigger : otherTriggers) {
+            Matcher matcher = trigger.getPattern().matcher(line);
+            if (matcher.find()) {
+                consumer.accept(trigger, matcher);
+            }
+        }
+    }
+
+    /**
+     * Replace $0 to $9 in command with groups from matcher
+     *
+     * @param command Command to expand
+     * @param matcher Matcher of a successful match
+     * @return expanded command
+     */
+    public static String expand(String command, Matcher matcher) {
+        if (command.indexOf('$') < 0) {
+            return command;
+        }
+
+        StringBuilder sb = new StringBuilder(command.length() + 16);
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c == '$' && i + 1 < command.length() && Character.isDigit(command.charAt(i + 1))) {
+                int group = command.charAt(++i) - '0';
+                if (group <= matcher.groupCount() && matcher.group(group) != null) {
+                    sb.append(matcher.group(group));
+                }
+                continue;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return literals of which every match of regex must contain at least one, or null if there are none
+     * <p>
+     * A pattern gives one literal per top level alternative.
+     *
+     * @param regex Regular expression, without any leading (?i)
+     * @return required literals or null
+     */
+    public static List<String> requiredLiterals(String regex) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= regex.length(); i++) {
+            char c = i < regex.length() ? regex.charAt(i) : '|';
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                String literal = requiredLiteral(regex.substring(start, i));
+                if (literal == null) {
+                    return null;
+                }
+                result.add(literal);
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the longest literal that every match of regex must contain, or null if there isn't one
+     *
+     * @param regex Regular expression
+     * @return required literal or null
+     */
+    public static String requiredLiteral(String regex) {
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (++i >= regex.length()) {
+                        return null;
+                    }
+                    char escaped = regex.charAt(i);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        // Character class or boundary. Quoting, back references and escapes followed by a payload
+                        // such as \x41 or \p{Lu} aren't worth following.
+                        if ("QxuckpPN0123456789".indexOf(escaped) >= 0) {
+                            return null;
+                        }
+                        best = longest(best, run);
+                    } else if (depth == 0) {
+                        run.append(escaped);
+                    }
+                    break;
+                case '|':
+                    if (depth == 0) {
+                        return null;
+                    }
+                    break;
+                case '(':
+                    if (i + 2 < regex.length() && regex.charAt(i + 1) == '?' && "=!<:".indexOf(regex.charAt(i + 2)) < 0) {
+                        // Inline flags
+                        return null;
+                    }
+                    depth++;
+                    best = longest(best, run);
+                    break;
+                case ')':
+                    depth--;
+                    break;
+                case '[':
+                    i = skipClass(regex, i);
+                    best = longest(best, run);
+                    break;
+                case '?':
+                case '*':
+                case '{':
+                    // Previous character is optional
+                    if (run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    best = longest(best, run);
+                    if (c == '{') {
+                        while (i < regex.length() && regex.charAt(i) != '}') {
+                            i++;
+                        }
+                    }
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    best = longest(best, run);
+                    break;
+                default:
+                    if (depth == 0) {
+                        run.append(c);
+                    } else {
+                        best = longest(best, run);
+                    }
+            }
+        }
+        best = longest(best, run);
+        return best.isEmpty() ? null : best;
+    }
+
+    /**
+     * Return the index of the ] closing the class starting at start
+     */
+    private static int skipClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        while (i < regex.length() && regex.charAt(i) != ']') {
+            if (regex.charAt(i) == '\\') {
+                i++;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static String longest(String best, StringBuilder run) {
+        String result = run.length() > best.length() ? run.toString() : best;
+        run.setLength(0);
+        return result;
+    }
+
+    /**
+     * A pattern and the commands to run when it matches
+     */
+    @Getter
+    public static class Trigger {
+        private final String name;
+        private final Pattern pattern;
+        private final List<String> commands;
+        private final List<String> literals;
+        private final boolean ignoreCase;
+
+        public Trigger(String name, String match, List<String> commands) throws PatternSyntaxException {
+            this.name = name;
+            this.pattern = Pattern.compile(match);
+            this.commands = Collections.unmodifiableList(new ArrayList<>(commands));
+            this.ignoreCase = match.startsWith("(?i)");
+
+            List<String> literals = requiredLiterals(ignoreCase ? match.substring(4) : match);
+            if (literals != null && ignoreCase) {
+                literals.replaceAll(literal -> literal.toLowerCase(Locale.ROOT));
+            }
+            this.literals = literals;
+        }
+
+        /**
+         * Return false if line can't possibly match
+         */
+        boolean mayMatch(String line) {
+            for (String literal : literals) {
+                if (ignoreCase ? containsIgnoreCase(line, literal) : line.contains(literal)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean containsIgnoreCase(String line, String literal) {
+            char first = literal.charAt(0);
+            for (int i = 0, last = line.length() - literal.length(); i <= last; i++) {
+                if (Character.toLowerCase(line.charAt(i)) == first && line.regionMatches(true, i, literal, 0, literal.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
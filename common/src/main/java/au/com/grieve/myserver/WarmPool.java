@@ -0,0 +1,267 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.api.ServerStatus;
+import au.com.grieve.myserver.api.scheduler.IScheduledTask;
+import au.com.grieve.myserver.api.templates.server.IServer;
+import au.com.grieve.myserver.api.templates.server.IServerTemplate;
+import au.com.grieve.myserver.exceptions.InvalidServerException;
+import au.com.grieve.myserver.exceptions.TagException;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps started servers ready to hand over for templates with a pool
+ * <p>
+ * Pooled servers are ordinary servers flagged as pooled in their server.yml so they survive a restart of the proxy.
+ * Claiming one renames it and applies the requester's tags in one go. The pool refills one server per template at a
+ * time and only while nobody is waiting on the AdmissionController, so it never holds up a real start.
+ */
+@Getter
+public class WarmPool {
+    public static final long REFILL_INTERVAL = 60;
+
+    private final ServerManager serverManager;
+
+    // Templates with a pooled server on the way
+    private final Set<String> filling = ConcurrentHashMap.newKeySet();
+
+    private IScheduledTask task;
+
+    public WarmPool(ServerManager serverManager) {
+        this.serverManager = serverManager;
+    }
+
+    public void start() {
+        task = serverManager.getMyServer().getScheduler().schedule(this::refill, REFILL_INTERVAL, REFILL_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Return the pooled servers of a template
+     */
+    public List<IServer> getPooled(IServerTemplate template) {
+        List<IServer> result = new ArrayList<>();
+        for (IServer server : serverManager.getServers()) {
+            if (server.isPooled() && server.getTemplate().getName().equals(template.getName())) {
+                result.add(server);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Claim a pooled server, preferring one already running over a hibernated one
+     *
+     * @param template Template to claim from
+     * @param name     New name of the server
+     * @param tags     Tags to apply
+     * @return the claimed server, or null if none are ready
+     */
+    public IServer claim(IServerTemplate template, String name, Map<String, String> tags) throws InvalidServerException, TagException, IOException {
+        if (name.isEmpty() || !name.matches("[0-9a-zA-Z-.]+")) {
+            throw new InvalidServerException("Invalid Name. Must only contains a-zA-Z0-9.-");
+        }
+
+        IServer server;
+        String poolName;
+        synchronized (this) {
+            // Checked and taken together so two claims can't both get the name
+            if (serverManager.hasServer(name)) {
+                throw new InvalidServerException("Server " + name + " already exists");
+            }
+
+            server = take(template);
+            if (server == null) {
+                return null;
+            }
+
+            // Persist the new name along with it leaving the pool so a crash can't leave it as neither
+            poolName = server.getName();
+            server.setName(name);
+            try {
+                server.saveNow();
+            } catch (IOException e) {
+                server.setName(poolName);
+                server.setPooled(true);
+                throw e;
+            }
+            serverManager.registerServer(server);
+        }
+
+        try {
+            if (server.getStatus() == ServerStatus.HIBERNATED) {
+                server.wake();
+            }
+
+            // One save and one render of the dynamic files for every tag
+            if (!tags.isEmpty()) {
+                server.setTags(tags);
+            }
+        } catch (InvalidServerException | TagException | IOException e) {
+            release(server, poolName);
+            throw e;
+        }
+
+        if (!tags.isEmpty()) {
+            if (template.getServerPoolReload().isEmpty()) {
+                server.restartAsync();
+            } else {
+                server.sendCommandAsync(template.getServerPoolReload());
+            }
+        }
+
+        serverManager.getMyServer().getScheduler().runAsync(this::refill);
+        return server;
+    }
+
+    /**
+     * Put a server we failed to hand over back in the pool
+     */
+    protected synchronized void release(IServer server, String poolName) {
+        server.setName(poolName);
+        server.setPooled(true);
+        try {
+            server.saveNow();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        serverManager.registerServer(server);
+    }
+
+    /**
+     * Take a ready server out of the pool
+     */
+    protected synchronized IServer take(IServerTemplate template) {
+        IServer hibernated = null;
+        for (IServer server : getPooled(template)) {
+            if (server.getStatus() == ServerStatus.STARTED) {
+                server.setPooled(false);
+                return server;
+            }
+            if (hibernated == null && server.getStatus() == ServerStatus.HIBERNATED) {
+                hibernated = server;
+            }
+        }
+
+        if (hibernated != null) {
+            hibernated.setPooled(false);
+        }
+        return hibernated;
+    }
+
+    /**
+     * Start one more pooled server for each template short of its pool size
+     */
+    protected void refill() {
+        if (serverManager.getAdmissionController().getQueueSize() > 0) {
+            return;
+        }
+
+        for (IServerTemplate template : serverManager.getMyServer().getTemplateManager().getTemplates(IServerTemplate.class)) {
+            if (template.getServerPoolSize() <= 0 || !filling.add(template.getName())) {
+                continue;
+            }
+
+            try {
+                IServer server = next(template);
+                if (server == null) {
+                    filling.remove(template.getName());
+                    continue;
+                }
+
+                server.startAsync().whenComplete((status, e) -> {
+                    filling.remove(template.getName());
+                    if (e != null) {
+                        e.printStackTrace();
+                        return;
+                    }
+
+                    // Off the thread that saw it start, and keep going until full
+                    serverManager.getMyServer().getScheduler().runAsync(() -> {
+                        if (template.isServerPoolHibernate() && server.isPooled()) {
+                            try {
+                                server.hibernate();
+                            } catch (InvalidServerException | IOException ex) {
+                                ex.printStackTrace();
+                            }
+                        }
+                        refill();
+                    });
+                });
+            } catch (Exception e) {
+                filling.remove(template.getName());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Return the next pooled server to start, reusing a stopped one before creating another
+     */
+    protected IServer next(IServerTemplate template) throws InvalidServerException, IOException {
+        int ready = 0;
+        IServer stopped = null;
+        for (IServer server : getPooled(template)) {
+            switch (server.getStatus()) {
+                case STOPPED:
+                case ERROR:
+                    if (stopped == null) {
+                        stopped = server;
+                    }
+                    break;
+                default:
+                    ready++;
+            }
+        }
+
+        if (ready >= template.getServerPoolSize()) {
+            return null;
+        }
+
+        if (stopped != null) {
+            return stopped;
+        }
+
+        IServer server = template.createServer("pool-" + UUID.randomUUID().toString().substring(0, 8));
+        server.setPooled(true);
+        server.saveNow();
+        return server;
+    }
+}
@@ -35,6 +35,13 @@ public interface BaseConfig {
      */
     BaseFolderSection getFolderConfig();
 
+    /**
+     * Return limits on the servers we run
+     *
+     * @return Limits section config
+     */
+    BaseLimitsSection getLimitsConfig();
+
     interface BaseFolderSection {
         /**
          * Return the path of the templates.
@@ -62,4 +69,27 @@ public interface BaseConfig {
         Path getServersPath();
     }
 
+    interface BaseLimitsSection {
+        /**
+         * Return memory in MB that running servers may use in total
+         *
+         * @return memory budget, or 0 to use the host's physical memory
+         */
+        long getMemory();
+
+        /**
+         * Return memory in MB each server uses on top of its heap
+         *
+         * @return per server overhead
+         */
+        long getMemoryOverhead();
+
+        /**
+         * Return how many servers may be starting at once
+         *
+         * @return concurrent starts, or 0 for half the available processors
+         */
+        int getMaxStarting();
+    }
+
 }
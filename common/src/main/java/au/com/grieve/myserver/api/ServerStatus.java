@@ -24,6 +24,10 @@
 
 package au.com.grieve.myserver.api;
 
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * Provides the status of the server
  */
@@ -34,5 +38,32 @@ public enum ServerStatus {
     STOPPING,
     STOPPED,
     STARTING,
-    STARTED
+    STARTED,
+    HIBERNATED;
+
+    static {
+        UNKNOWN.allow(STOPPED, ERROR);
+        ERROR.allow(STOPPED, INIT);
+        STOPPED.allow(INIT, ERROR);
+        INIT.allow(STARTING, STOPPED, ERROR);
+        STARTING.allow(STARTED, STOPPING, STOPPED, ERROR);
+        STARTED.allow(STOPPING, STOPPED, ERROR, HIBERNATED);
+        HIBERNATED.allow(STARTED, STOPPED, ERROR);
+        STOPPING.allow(STOPPED, ERROR);
+    }
+
+    private Set<ServerStatus> next = Collections.emptySet();
+
+    private void allow(ServerStatus first, ServerStatus... rest) {
+        next = Collections.unmodifiableSet(EnumSet.of(first, rest));
+    }
+
+    /**
+     * Return true if a server may move from this status to status
+     *
+     * @param status the new status
+     */
+    public boolean canTransitionTo(ServerStatus status) {
+        return next.contains(status);
+    }
 }
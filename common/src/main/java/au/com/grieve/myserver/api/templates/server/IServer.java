@@ -25,17 +25,34 @@
 package au.com.grieve.myserver.api.templates.server;
 
 import au.com.grieve.myserver.ServerManager;
+import au.com.grieve.myserver.api.ServerStatus;
 import au.com.grieve.myserver.exceptions.InvalidServerException;
+import au.com.grieve.myserver.exceptions.TagException;
 import au.com.grieve.myserver.templates.server.ServerTemplate;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public interface IServer {
     IServer load() throws InvalidServerException, IOException;
 
+    /**
+     * Save the server in the background
+     *
+     * @return ourself
+     */
     IServer save() throws IOException;
 
+    /**
+     * Save the server immediately
+     *
+     * @return ourself
+     */
+    IServer saveNow() throws IOException;
+
     String getTag(String name);
 
     String getTag(String name, String defaultValue);
@@ -46,12 +63,134 @@ public interface IServer {
 
     void resetTag(String name);
 
+    /**
+     * Set several tags at once
+     * <p>
+     * All values are validated before any are applied, then the server is saved and its files updated only once
+     *
+     * @param values map of tag names to values
+     */
+    void setTags(Map<String, String> values) throws TagException, IOException;
+
+    /**
+     * Remove local values for several tags at once
+     *
+     * @param names names of tags
+     */
+    void resetTags(Collection<String> names) throws TagException, IOException;
+
+    /**
+     * Forget what template files were last rendered with, so the next update renders them all
+     */
+    void clearRenderedFiles();
+
+    ServerStatus getStatus();
+
+    /**
+     * Return where the server is in the queue to start
+     *
+     * @return position starting at 1, or 0 if not waiting
+     */
+    int getQueuePosition();
+
+    /**
+     * Return minutes the server may run with no players before it is stopped, or 0 to never stop it
+     */
+    int getIdleStop();
+
+    /**
+     * Set minutes the server may run with no players, or null to use the template's setting
+     *
+     * @param minutes minutes before stopping
+     */
+    void setIdleStop(Integer minutes);
+
+    /**
+     * Return true if the server is started when a player connects to it while stopped
+     */
+    boolean isIdleStart();
+
+    /**
+     * Set if the server is started when a player connects, or null to use the template's setting
+     *
+     * @param start true to start on connect
+     */
+    void setIdleStart(Boolean start);
+
+    /**
+     * Return minutes the server may run with no players before it is hibernated, or 0 to never hibernate it
+     */
+    int getIdleHibernate();
+
+    /**
+     * Set minutes the server may run with no players before hibernating, or null to use the template's setting
+     *
+     * @param minutes minutes before hibernating
+     */
+    void setIdleHibernate(Integer minutes);
+
+    /**
+     * Return true if the server is waiting in its template's warm pool
+     */
+    boolean isPooled();
+
+    void setPooled(boolean pooled);
+
     void start() throws InvalidServerException, IOException;
 
     void stop() throws InvalidServerException, IOException;
 
+    /**
+     * Freeze a started server in place, keeping its port and memory
+     */
+    void hibernate() throws InvalidServerException, IOException;
+
+    /**
+     * Thaw a hibernated server
+     */
+    void wake() throws InvalidServerException, IOException;
+
+    /**
+     * Start the server
+     *
+     * @return future completed with STARTED once the server responds
+     */
+    CompletableFuture<ServerStatus> startAsync();
+
+    CompletableFuture<ServerStatus> startAsync(long timeout, TimeUnit unit);
+
+    /**
+     * Stop the server
+     *
+     * @return future completed with STOPPED once the process has exited
+     */
+    CompletableFuture<ServerStatus> stopAsync();
+
+    CompletableFuture<ServerStatus> stopAsync(long timeout, TimeUnit unit);
+
+    /**
+     * Stop the server if it is running then start it
+     *
+     * @return future completed with STARTED once the server responds
+     */
+    CompletableFuture<ServerStatus> restartAsync();
+
+    CompletableFuture<ServerStatus> restartAsync(long timeout, TimeUnit unit);
+
     void destroy() throws IOException;
 
+    /**
+     * Ping the server with a full status request
+     *
+     * @return future completed with true if the server answered
+     */
+    CompletableFuture<Boolean> ping();
+
+    /**
+     * Mark a starting server as started once it is known to be ready
+     */
+    void markReady();
+
     ServerManager getServerManager();
 
     ServerTemplate getTemplate();
@@ -70,6 +209,18 @@ public interface IServer {
 
     void setServerPort(Integer serverPort);
 
+    /**
+     * Return the port the server last ran on, so it can be given the same one again
+     */
+    Integer getLastPort();
+
+    /**
+     * Return the socket file the server listens on, or null if it listens on a port
+     */
+    java.nio.file.Path getServerSocket();
+
+    void setServerSocket(java.nio.file.Path serverSocket);
+
     String getName();
 
     void setName(String name);
@@ -84,4 +235,20 @@ public interface IServer {
      * @param command command to send
      */
     void sendCommand(String command) throws InvalidServerException, IOException;
+
+    /**
+     * Queue a command for a running server without waiting for it to be written
+     *
+     * @param command command to send
+     * @return future completed once the command has been written
+     */
+    CompletableFuture<Void> sendCommandAsync(String command);
+
+    /**
+     * Queue several commands for a running server, written together
+     *
+     * @param commands commands to send
+     * @return future completed once all the commands have been written
+     */
+    CompletableFuture<Void> sendCommandAsync(Collection<String> commands);
 }
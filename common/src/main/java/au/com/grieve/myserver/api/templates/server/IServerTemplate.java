@@ -31,6 +31,7 @@ import au.com.grieve.myserver.templates.server.Server;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface IServerTemplate extends ITagsTemplate {
     Server createServer(String name) throws InvalidServerException, IOException;
@@ -50,9 +51,87 @@ public interface IServerTemplate extends ITagsTemplate {
 
     int getServerStartDelay();
 
+    /**
+     * Patterns matched against server output that show the server has started
+     */
+    List<String> getServerStartReady();
+
     List<String> getServerStopCommands();
 
     int getServerStopWait();
 
+    /**
+     * Return minutes a server may run with no players before it is stopped, or 0 to never stop it
+     */
+    int getServerIdleStop();
+
+    /**
+     * Return true if a stopped server is started when a player connects to it
+     */
+    boolean isServerIdleStart();
+
+    /**
+     * Return minutes a server may run with no players before it is hibernated, or 0 to never hibernate it
+     */
+    int getServerIdleHibernate();
+
+    /**
+     * Return true if the kernel is asked to reclaim the memory of a hibernated server
+     */
+    boolean isServerIdleReclaim();
+
+    /**
+     * Return how many started servers are kept ready to be claimed
+     */
+    int getServerPoolSize();
+
+    /**
+     * Return true if pooled servers are hibernated once started
+     */
+    boolean isServerPoolHibernate();
+
+    /**
+     * Commands sent to a claimed server once its tags are applied. If empty the server is restarted instead
+     */
+    List<String> getServerPoolReload();
+
+    /**
+     * Return how the proxy connects to the server
+     */
+    TransportEnum getServerTransport();
+
+    CreateModeEnum getServerCreateMode();
+
+    List<String> getServerCreateWritable();
+
+    /**
+     * Provision the server jar, sharing any build already in progress
+     *
+     * @return future completed with the path of the server jar
+     */
+    CompletableFuture<Path> provisionServer();
+
+    /**
+     * Return true if the server jar has already been provisioned
+     */
+    boolean isProvisioned();
+
     void prepareServer(IServer server) throws IOException;
+
+    /**
+     * Break links to the template for files the server is known to write to
+     *
+     * @param server Server to update
+     */
+    void copyUpFiles(IServer server) throws IOException;
+
+    enum CreateModeEnum {
+        COPY,
+        LINK
+    }
+
+    enum TransportEnum {
+        TCP,
+        UNIX
+    }
 }
@@ -22,7 +22,7 @@
  * SOFTWARE.
  */
 
-package au.com.grieve.myserver.platform.bungeecord.exceptions;
+package au.com.grieve.myserver.exceptions;
 
 public class PortNotFoundException extends Exception {
     public PortNotFoundException() {
@@ -54,7 +54,7 @@ public abstract class Template implements ITemplate {
     public Template(TemplateManager templateManager, Path templatePath) throws NoSuchTemplateException, InvalidTemplateException, IOException {
         this.templateManager = templateManager;
         this.templatePath = templatePath;
-        this.node = MAPPER.readTree(templatePath.resolve("template.yml").toFile());
+        this.node = templateManager.readTemplateNode(templatePath);
 
         if (!node.has("name")) {
             throw new InvalidTemplateException("Missing field: name");
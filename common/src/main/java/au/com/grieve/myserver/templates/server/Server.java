@@ -24,89 +24,156 @@
 
 package au.com.grieve.myserver.templates.server;
 
+import au.com.grieve.myserver.CompiledTemplate;
+import au.com.grieve.myserver.AdmissionController;
+import au.com.grieve.myserver.CommandChannel;
+import au.com.grieve.myserver.ConsoleLogSink;
 import au.com.grieve.myserver.ServerManager;
+import au.com.grieve.myserver.ServerPersister;
 import au.com.grieve.myserver.SimpleTemplater;
+import au.com.grieve.myserver.TriggerMatcher;
 import au.com.grieve.myserver.api.ServerStatus;
 import au.com.grieve.myserver.api.TagDefinition;
+import au.com.grieve.myserver.api.scheduler.IScheduledTask;
 import au.com.grieve.myserver.api.templates.ITagsTemplate;
 import au.com.grieve.myserver.api.templates.server.IServer;
 import au.com.grieve.myserver.exceptions.InvalidServerException;
+import au.com.grieve.myserver.exceptions.NoSuchTagException;
+import au.com.grieve.myserver.exceptions.PlaceholderLoopException;
+import au.com.grieve.myserver.exceptions.TagException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
 import org.apache.commons.io.FileUtils;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Getter
 @ToString
 public abstract class Server implements IServer {
     public static ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
+    public static final Pattern XMX_PATTERN = Pattern.compile("-Xmx(\\d+)([kKmMgGtT]?)");
 
     private final ServerTemplate template;
     private final Path serverPath;
     private final Map<String, List<String>> permissions = new HashMap<>();
     private final Map<String, String> tags = new HashMap<>();
 
+    // What each template file was last rendered with, cleared when the server is unregistered
+    @ToString.Exclude
+    private final Map<Path, RenderedFile> renderedFiles = new ConcurrentHashMap<>();
+
     // Process Options
     private Process process;
-    private BufferedReader processOutput;
-    private BufferedWriter processInput;
+    @ToString.Exclude
+    private CommandChannel commandChannel;
+    @ToString.Exclude
+    private ConsoleLogSink.ConsoleLog consoleLog;
+
+    // True once whoever is starting the server no longer wants it started
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private volatile BooleanSupplier startCancelled = () -> false;
 
     @Setter
     private String serverIp;
 
-    @Setter
     private Integer serverPort;
 
+    @Setter
+    private Path serverSocket;
+
+    // Port last given to the server
+    private Integer lastPort;
+
     @Setter
     private String name;
 
     @Setter
     private UUID uuid;
 
+    // Idle policy overriding the template's
+    @Getter(AccessLevel.NONE)
+    private Integer idleStop;
+    @Getter(AccessLevel.NONE)
+    private Boolean idleStart;
+    @Getter(AccessLevel.NONE)
+    private Integer idleHibernate;
+
+    // Waiting in the template's warm pool
     @Setter
-    private ServerStatus status;
+    private volatile boolean pooled;
+
+    @Getter(AccessLevel.NONE)
+    private final AtomicReference<ServerStatus> status = new AtomicReference<>(ServerStatus.UNKNOWN);
+
+    // Futures waiting on the server to reach a status
+    @ToString.Exclude
+    private final List<StatusWaiter> statusWaiters = new CopyOnWriteArrayList<>();
 
     public Server(ServerTemplate template, Path serverPath) {
         this.template = template;
         this.serverPath = serverPath;
-        this.status = ServerStatus.UNKNOWN;
     }
 
     @Override
     public IServer load() throws InvalidServerException, IOException {
-        loadData(MAPPER.readTree(getServerPath().resolve("server.yml").toFile()));
+        JsonNode node = MAPPER.readTree(getServerPath().resolve("server.yml").toFile());
+        synchronized (this) {
+            loadData(node);
+        }
         return this;
     }
 
     @Override
     public IServer save() throws IOException {
+        getServerManager().getServerPersister().schedule(this);
+        return this;
+    }
+
+    @Override
+    public IServer saveNow() throws IOException {
+        getServerManager().getServerPersister().cancel(this);
+
         ObjectNode root = MAPPER.createObjectNode();
-        saveData(root);
-        MAPPER.writeValue(serverPath.resolve("server.yml").toFile(), root);
+        synchronized (this) {
+            saveData(root);
+        }
+        getServerManager().getServerPersister().write(serverPath.resolve("server.yml"), MAPPER.writeValueAsBytes(root));
         return this;
     }
 
@@ -131,6 +198,27 @@ public abstract class Server implements IServer {
                 tags.put(entry.getKey(), entry.getValue());
             }
         }
+
+        if (lastPort != null) {
+            node.put("port", lastPort);
+        }
+
+        if (pooled) {
+            node.put("pooled", true);
+        }
+
+        if (idleStop != null || idleStart != null || idleHibernate != null) {
+            ObjectNode idle = node.putObject("idle");
+            if (idleStop != null) {
+                idle.put("stop", idleStop);
+            }
+            if (idleStart != null) {
+                idle.put("start", idleStart);
+            }
+            if (idleHibernate != null) {
+                idle.put("hibernate", idleHibernate);
+            }
+        }
     }
 
     protected void loadData(JsonNode node) throws InvalidServerException {
@@ -165,6 +253,25 @@ public abstract class Server implements IServer {
                 tags.put(entry.getKey(), entry.getValue().asText());
             }
         }
+
+        lastPort = node.has("port") ? node.get("port").asInt() : null;
+        pooled = node.has("pooled") && node.get("pooled").asBoolean();
+
+        idleStop = null;
+        idleStart = null;
+        idleHibernate = null;
+        if (node.has("idle")) {
+            JsonNode idle = node.get("idle");
+            if (idle.has("stop")) {
+                idleStop = idle.get("stop").asInt();
+            }
+            if (idle.has("start")) {
+                idleStart = idle.get("start").asBoolean();
+            }
+            if (idle.has("hibernate")) {
+                idleHibernate = idle.get("hibernate").asInt();
+            }
+        }
     }
 
     @Override
@@ -203,14 +310,14 @@ public abstract class Server implements IServer {
     }
 
     @Override
-    public void setTag(String name, String value) {
+    public synchronized void setTag(String name, String value) {
         tags.put(name, value);
         try {
             save();
-        } catch (IOException e) {
+            updateFiles(ITagsTemplate.TemplateFileEnum.DYNAMIC);
+        } catch (IOException | PlaceholderLoopException e) {
             throw new RuntimeException(e);
         }
-        updateFiles(ITagsTemplate.TemplateFileEnum.DYNAMIC);
     }
 
     /**
@@ -219,46 +326,139 @@ public abstract class Server implements IServer {
      * @param name Name of tag
      */
     @Override
-    public void resetTag(String name) {
+    public synchronized void resetTag(String name) {
         if (tags.remove(name) != null) {
             try {
                 save();
-            } catch (IOException e) {
+                updateFiles(ITagsTemplate.TemplateFileEnum.DYNAMIC);
+            } catch (IOException | PlaceholderLoopException e) {
                 throw new RuntimeException(e);
             }
+        }
+    }
+
+    @Override
+    public synchronized void setTags(Map<String, String> values) throws TagException, IOException {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            TagDefinition definition = getTagDefinition(entry.getKey());
+            if (entry.getValue() == null || !definition.validate(entry.getValue())) {
+                throw new TagException("Invalid value for tag " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+
+        Map<String, String> previous = new HashMap<>(tags);
+        tags.putAll(values);
+        commitTags(previous);
+    }
+
+    @Override
+    public synchronized void resetTags(Collection<String> names) throws TagException, IOException {
+        for (String name : names) {
+            getTagDefinition(name);
+        }
+
+        Map<String, String> previous = new HashMap<>(tags);
+        if (tags.keySet().removeAll(names)) {
+            commitTags(previous);
+        }
+    }
+
+    protected TagDefinition getTagDefinition(String name) throws NoSuchTagException {
+        TagDefinition definition = getTemplate().getTags().get(name);
+        if (definition == null) {
+            throw new NoSuchTagException("No such tag: " + name);
+        }
+        return definition;
+    }
+
+    /**
+     * Save and update files after tags have changed, restoring the previous tags if saving fails or the new values
+     * form a placeholder loop
+     * <p>
+     * Saved straight away rather than write-behind so a failure is seen here.
+     *
+     * @param previous tags before the change
+     */
+    protected void commitTags(Map<String, String> previous) throws TagException, IOException {
+        try {
+            saveNow();
+        } catch (IOException e) {
+            tags.clear();
+            tags.putAll(previous);
+            throw e;
+        }
+
+        try {
             updateFiles(ITagsTemplate.TemplateFileEnum.DYNAMIC);
+        } catch (PlaceholderLoopException e) {
+            tags.clear();
+            tags.putAll(previous);
+            saveNow();
+            throw new TagException(e.getMessage(), e);
         }
     }
 
     /**
      * Update template files with their current values
+     * <p>
+     * Files are only rendered if the template file or the value of a tag it depends on has changed since it was
+     * last rendered, or the file on disk is no longer as it was left
+     *
+     * @throws PlaceholderLoopException if a tag used by a file references itself
      */
-    public void updateFiles(ITagsTemplate.TemplateFileEnum templateType) {
+    public void updateFiles(ITagsTemplate.TemplateFileEnum templateType) throws PlaceholderLoopException {
         SimpleTemplater st = newTemplater();
 
         for (Path path : getTemplate().getTemplateFiles().getOrDefault(templateType, Collections.emptyList())) {
-            try (BufferedReader in = new BufferedReader(new FileReader(getTemplate().getTemplatePath().resolve("files").resolve(path).toFile()));
-                 BufferedWriter out = new BufferedWriter(new FileWriter(getServerPath().resolve("files").resolve(path).toFile()))) {
-                st.process(in, out);
+            Path source = getTemplate().getTemplatePath().resolve("files").resolve(path);
+            Path target = getServerPath().resolve("files").resolve(path);
+            try {
+                CompiledTemplate compiledTemplate = CompiledTemplate.fromFile(source, st.getCharset());
+                Map<String, String> values = st.getStableValues(compiledTemplate);
+
+                RenderedFile rendered = renderedFiles.get(target);
+                if (rendered != null && rendered.getTemplate() == compiledTemplate && rendered.getValues().equals(values)
+                        && rendered.isCurrent(target)) {
+                    continue;
+                }
+
+                st.process(source, target);
+                BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+                renderedFiles.put(target, new RenderedFile(compiledTemplate, values, attrs.lastModifiedTime().toMillis(), attrs.size()));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
+    @Override
+    public void clearRenderedFiles() {
+        renderedFiles.clear();
+    }
+
     protected SimpleTemplater newTemplater() {
         DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
 
         return new SimpleTemplater()
                 .register(getAllTags())
-                .register("DATE_GENERATED", dtf.format(LocalDateTime.now()))
+                .registerVolatile("DATE_GENERATED", dtf.format(LocalDateTime.now()))
                 .register("MC_SERVER_IP", serverIp != null ? serverIp : "invalid")
-                .register("MC_SERVER_PORT", serverPort != null ? serverPort.toString() : "invalid");
+                .register("MC_SERVER_PORT", serverPort != null ? serverPort.toString() : serverSocket != null ? "0" : "invalid");
     }
 
     @Override
     public void start() throws InvalidServerException, IOException {
-        switch (status) {
+        start(() -> false);
+    }
+
+    /**
+     * Start the server, giving up before its process is spawned if cancelled
+     *
+     * @param cancelled checked before spawning, and returns true if the start is no longer wanted
+     */
+    protected void start(BooleanSupplier cancelled) throws InvalidServerException, IOException {
+        ServerStatus current = status.get();
+        switch (current) {
             case STARTED:
                 throw new InvalidServerException("Server is already started.");
             case STARTING:
@@ -266,13 +466,31 @@ public abstract class Server implements IServer {
             case INIT:
                 throw new InvalidServerException("Server is still initializing.");
             case ERROR:
-                // Reset Status
-                setStatus(ServerStatus.STOPPED);
             case STOPPED:
                 break;
             default:
                 throw new InvalidServerException("Server is not in a state to be started.");
         }
+
+        // Starting directly may not queue, so it must either already be admitted or fit now
+        AdmissionController admission = getServerManager().getAdmissionController();
+        AdmissionController.Ticket ticket = null;
+        if (!admission.isAdmitted(this)) {
+            ticket = admission.tryAdmit(this, getMemoryRequirement());
+            if (ticket == null) {
+                throw new InvalidServerException("Not enough resources to start the server now.");
+            }
+        }
+
+        // Only one caller can claim the start
+        if (!transition(current, ServerStatus.INIT)) {
+            if (ticket != null) {
+                admission.release(ticket);
+            }
+            throw new InvalidServerException("Server is changing state.");
+        }
+        startCancelled = cancelled;
+
         try {
             // Start Server
             startServer();
@@ -280,22 +498,33 @@ public abstract class Server implements IServer {
             // Save a reference to server during its lifetime
             getTemplate().getTemplateManager().getMyServer().getServerManager().getServerInstances().put(getUuid(), this);
         } catch (Exception e) {
-            setStatus(ServerStatus.ERROR);
+            // A cancelled start has already gone back to STOPPED
+            if (status.get() != ServerStatus.STOPPED) {
+                setStatus(ServerStatus.ERROR);
+            }
             throw e;
         }
     }
 
     @Override
     public void stop() throws InvalidServerException, IOException {
-        switch (status) {
+        switch (status.get()) {
             case STOPPED:
                 throw new InvalidServerException("Server is already stopped.");
             case STOPPING:
                 throw new InvalidServerException("Server is already stopping.");
+            case HIBERNATED:
+                // Must be running to hear the stop commands
+                wake();
+                break;
             case STARTED:
                 break;
             default:
-                throw new InvalidServerException("Server is not in a state to be started.");
+                throw new InvalidServerException("Server is not in a state to be stopped.");
+        }
+
+        if (!transition(ServerStatus.STARTED, ServerStatus.STOPPING)) {
+            throw new InvalidServerException("Server is changing state.");
         }
 
         stopServer();
@@ -304,9 +533,357 @@ public abstract class Server implements IServer {
         getTemplate().getTemplateManager().getMyServer().getServerManager().getServerInstances().remove(getUuid());
     }
 
+    @Override
+    public void hibernate() throws InvalidServerException, IOException {
+        if (status.get() != ServerStatus.STARTED) {
+            throw new InvalidServerException("Server is not in a state to be hibernated.");
+        }
+
+        Process process = this.process;
+        CommandChannel channel = commandChannel;
+        if (process == null || channel == null || !transition(ServerStatus.STARTED, ServerStatus.HIBERNATED)) {
+            throw new InvalidServerException("Server is changing state.");
+        }
+
+        // A frozen process can't read, so commands wait until it wakes
+        channel.pause();
+        try {
+            getServerManager().getProcessFreezer().freeze(process, getTemplate().isServerIdleReclaim());
+        } catch (IOException e) {
+            try {
+                getServerManager().getProcessFreezer().thaw(process);
+            } catch (IOException ignored) {
+            }
+            transition(ServerStatus.HIBERNATED, ServerStatus.STARTED);
+            channel.resume();
+            throw e;
+        }
+    }
+
+    @Override
+    public void wake() throws InvalidServerException, IOException {
+        if (status.get() != ServerStatus.HIBERNATED) {
+            throw new InvalidServerException("Server is not hibernated.");
+        }
+
+        Process process = this.process;
+        if (process == null) {
+            throw new InvalidServerException("Server is changing state.");
+        }
+
+        getServerManager().getProcessFreezer().thaw(process);
+        transition(ServerStatus.HIBERNATED, ServerStatus.STARTED);
+
+        CommandChannel channel = commandChannel;
+        if (channel != null) {
+            channel.resume();
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServerStatus> startAsync() {
+        return startAsync(0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start the server, completing once it has started
+     * <p>
+     * The server waits its turn with the AdmissionController while its jar is provisioned, without holding a thread.
+     * The future fails if the server stops before it has started or the timeout passes. Cancelling the future while
+     * the server is waiting gives up its place, while it is being prepared stops it before its process is spawned, and
+     * once its process is running kills it.
+     *
+     * @param timeout how long to wait, or 0 to wait forever
+     * @param unit    unit of timeout
+     * @return future completed with the new status
+     */
+    @Override
+    public CompletableFuture<ServerStatus> startAsync(long timeout, TimeUnit unit) {
+        CompletableFuture<ServerStatus> future = new CompletableFuture<>();
+
+        switch (getStatus()) {
+            case STOPPED:
+            case ERROR:
+                break;
+            default:
+                future.completeExceptionally(new InvalidServerException("Server is not in a state to be started."));
+                return future;
+        }
+
+        AdmissionController admission = getServerManager().getAdmissionController();
+        AdmissionController.Ticket ticket;
+        try {
+            ticket = admission.admit(this, getMemoryRequirement());
+        } catch (InvalidServerException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        getTemplate().provisionServer().thenCombine(ticket.getGranted(), (path, v) -> path).whenComplete((path, e) -> {
+            if (future.isDone()) {
+                admission.release(ticket);
+                return;
+            }
+            if (e != null) {
+                admission.release(ticket);
+                future.completeExceptionally(e);
+                return;
+            }
+            getServerManager().getMyServer().getScheduler().runAsync(() -> {
+                if (future.isDone()) {
+                    admission.release(ticket);
+                    return;
+                }
+                try {
+                    start(future::isDone);
+                } catch (Exception ex) {
+                    admission.release(ticket);
+                    future.completeExceptionally(ex);
+                    return;
+                }
+                awaitStatus(future, EnumSet.of(ServerStatus.STARTED), EnumSet.of(ServerStatus.STOPPED, ServerStatus.ERROR));
+            });
+        });
+
+        future.whenComplete((status, e) -> {
+            if (!ticket.getGranted().isDone()) {
+                admission.release(ticket);
+            }
+            // Still in INIT, the start gives up before spawning the process
+            if (future.isCancelled() && getStatus() == ServerStatus.STARTING) {
+                killServer();
+            }
+        });
+
+        return withTimeout(future, timeout, unit);
+    }
+
+    @Override
+    public CompletableFuture<ServerStatus> stopAsync() {
+        return stopAsync(0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the server, completing once its process has exited
+     * <p>
+     * Cancelling the future only stops waiting, the server will still stop.
+     *
+     * @param timeout how long to wait, or 0 to wait forever
+     * @param unit    unit of timeout
+     * @return future completed with the new status
+     */
+    @Override
+    public CompletableFuture<ServerStatus> stopAsync(long timeout, TimeUnit unit) {
+        CompletableFuture<ServerStatus> future = new CompletableFuture<>();
+        try {
+            stop();
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        awaitStatus(future, EnumSet.of(ServerStatus.STOPPED), EnumSet.noneOf(ServerStatus.class));
+        return withTimeout(future, timeout, unit);
+    }
+
+    @Override
+    public CompletableFuture<ServerStatus> restartAsync() {
+        return restartAsync(0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the server if it is running then start it again
+     *
+     * @param timeout how long to wait for each of the stop and start, or 0 to wait forever
+     * @param unit    unit of timeout
+     * @return future completed once the server has started again
+     */
+    @Override
+    public CompletableFuture<ServerStatus> restartAsync(long timeout, TimeUnit unit) {
+        ServerStatus current = getStatus();
+        CompletableFuture<ServerStatus> stopped = current == ServerStatus.STARTED
+                ? stopAsync(timeout, unit)
+                : CompletableFuture.completedFuture(current);
+        return stopped.thenCompose(s -> startAsync(timeout, unit));
+    }
+
+    /**
+     * Complete future when the server reaches one of success, or fail it on one of failure
+     */
+    protected void awaitStatus(CompletableFuture<ServerStatus> future, Set<ServerStatus> success, Set<ServerStatus> failure) {
+        StatusWaiter waiter = new StatusWaiter(future, success, failure);
+        statusWaiters.add(waiter);
+        future.whenComplete((s, e) -> statusWaiters.remove(waiter));
+
+        // Catch a change that happened before we were added
+        waiter.accept(status.get());
+    }
+
+    /**
+     * Fail future with a TimeoutException if it hasn't completed in time
+     */
+    protected CompletableFuture<ServerStatus> withTimeout(CompletableFuture<ServerStatus> future, long timeout, TimeUnit unit) {
+        if (timeout <= 0 || future.isDone()) {
+            return future;
+        }
+
+        IScheduledTask task = getServerManager().getMyServer().getScheduler().schedule(() ->
+                future.completeExceptionally(new TimeoutException("Timed out waiting for server " + getName())), timeout, unit);
+        future.whenComplete((s, e) -> getServerManager().getMyServer().getScheduler().cancel(task));
+        return future;
+    }
+
+    @Override
+    public void setServerPort(Integer serverPort) {
+        this.serverPort = serverPort;
+
+        // Remember it so the server can ask for it again next time
+        if (serverPort != null && !serverPort.equals(lastPort)) {
+            lastPort = serverPort;
+            try {
+                save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public int getIdleStop() {
+        return idleStop != null ? idleStop : getTemplate().getServerIdleStop();
+    }
+
+    @Override
+    public synchronized void setIdleStop(Integer minutes) {
+        idleStop = minutes;
+        try {
+            save();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean isIdleStart() {
+        return idleStart != null ? idleStart : getTemplate().isServerIdleStart();
+    }
+
+    @Override
+    public synchronized void setIdleStart(Boolean start) {
+        idleStart = start;
+        try {
+            save();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getIdleHibernate() {
+        return idleHibernate != null ? idleHibernate : getTemplate().getServerIdleHibernate();
+    }
+
+    @Override
+    public synchronized void setIdleHibernate(Integer minutes) {
+        idleHibernate = minutes;
+        try {
+            save();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getQueuePosition() {
+        return getServerManager().getAdmissionController().getPosition(this);
+    }
+
+    /**
+     * Return the heap in bytes the server will use
+     * <p>
+     * Taken from the last -Xmx in the start command, then the JAVA_MEMORY tag in GB, else 1GB.
+     *
+     * @throws InvalidServerException if the start command can't be templated
+     */
+    protected long getMemoryRequirement() throws InvalidServerException {
+        Matcher matcher = XMX_PATTERN.matcher(replaceStartExecute());
+        long heap = 0;
+        while (matcher.find()) {
+            heap = Long.parseLong(matcher.group(1));
+            switch (matcher.group(2).toLowerCase()) {
+                case "t":
+                    heap <<= 40;
+                    break;
+                case "g":
+                    heap <<= 30;
+                    break;
+                case "m":
+                    heap <<= 20;
+                    break;
+                case "k":
+                    heap <<= 10;
+                    break;
+            }
+        }
+        if (heap > 0) {
+            return heap;
+        }
+
+        try {
+            return Long.parseLong(getTag("JAVA_MEMORY", "1").trim()) << 30;
+        } catch (NumberFormatException e) {
+            return 1L << 30;
+        }
+    }
+
+    @Override
+    public ServerStatus getStatus() {
+        return status.get();
+    }
+
+    /**
+     * Move to status from whatever the current status is
+     *
+     * @param status the new status
+     * @throws IllegalStateException if the current status can't move to status
+     */
+    public void setStatus(ServerStatus status) {
+        while (true) {
+            ServerStatus current = this.status.get();
+            if (current == status || transition(current, status)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Atomically move from expected to next
+     *
+     * @param expected status we expect to be in
+     * @param next     the new status
+     * @return false if the server was no longer in expected
+     * @throws IllegalStateException if expected can't move to next
+     */
+    protected boolean transition(ServerStatus expected, ServerStatus next) {
+        if (!expected.canTransitionTo(next)) {
+            throw new IllegalStateException("Invalid status change for " + getName() + ": " + expected + " -> " + next);
+        }
+
+        if (!status.compareAndSet(expected, next)) {
+            return false;
+        }
+
+        for (StatusWaiter waiter : statusWaiters) {
+            waiter.accept(next);
+        }
+        getServerManager().fireStatusChange(this, expected, next);
+        return true;
+    }
+
     @Override
     public void destroy() throws IOException {
+        getServerManager().getServerPersister().cancel(this);
         FileUtils.deleteDirectory(getServerPath().toFile());
+        getServerManager().unregisterServer(this);
     }
 
     @Override
@@ -315,7 +892,6 @@ public abstract class Server implements IServer {
     }
 
     protected void startServer() throws InvalidServerException, IOException {
-        setStatus(ServerStatus.INIT);
         // Make sure required tags have a value
         for (Map.Entry<String, TagDefinition> entry : getTemplate().getTags().entrySet()) {
             if (entry.getValue().isRequired() && !tags.containsKey(entry.getKey()) && entry.getValue().getDefaultValue() == null) {
@@ -324,56 +900,120 @@ public abstract class Server implements IServer {
             }
         }
 
-        updateFiles(ITagsTemplate.TemplateFileEnum.DYNAMIC);
+        try {
+            updateFiles(ITagsTemplate.TemplateFileEnum.DYNAMIC);
+        } catch (PlaceholderLoopException e) {
+            throw new InvalidServerException(e.getMessage(), e);
+        }
 
         // Prepare Server
+        getTemplate().copyUpFiles(this);
         getTemplate().prepareServer(this);
 
-        setStatus(ServerStatus.STARTING);
-
-        SimpleTemplater st = newTemplater();
+        if (startCancelled.getAsBoolean()) {
+            transition(ServerStatus.INIT, ServerStatus.STOPPED);
+            throw new InvalidServerException("Server start was cancelled.");
+        }
+        transition(ServerStatus.INIT, ServerStatus.STARTING);
 
-        ProcessBuilder pb = new ProcessBuilder(st.replace(getTemplate().getServerStartExecute()).split(" "))
+        ProcessBuilder pb = new ProcessBuilder(replaceStartExecute().split(" "))
                 .redirectErrorStream(true)
                 .directory(getServerPath().resolve("files").toFile());
 
         process = pb.start();
-        processOutput = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        processInput = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+        commandChannel = getServerManager().getProcessPump().openCommandChannel(process, Charset.defaultCharset());
 
-        // Handler the lifetime of the process
-        getServerManager().getMyServer().getScheduler().runAsync(() -> {
-            try {
-                for (String line; ((line = processOutput.readLine()) != null); ) {
-                    handleOutput(line);
-                }
-            } catch (IOException ignored) {
-            } finally {
-                try {
-                    process = null;
-                    processOutput.close();
-                    processInput.close();
-                    processOutput = null;
-                    processInput = null;
-                    onServerStop();
-                } catch (IOException ignored) {
+        ConsoleLogSink.ConsoleLog log = getServerManager().getConsoleLogSink()
+                .open(getServerPath().resolve("logs"), getTemplate().getServerLogForward(), getTemplate().getServerLogRate());
+        consoleLog = log;
+
+        // Handle the lifetime of the process
+        getServerManager().getProcessPump().register(process, Charset.defaultCharset(), line -> {
+            checkReady(line);
+            checkTriggers(line);
+
+            // Everything goes to our own log, and only some to the proxy
+            log.write(line);
+            if (log.shouldForward(line)) {
+                long suppressed = log.takeSuppressed();
+                if (suppressed > 0) {
+                    handleOutput("(" + suppressed + " lines not shown, see " + log.getLogFile() + ")");
                 }
+                handleOutput(line);
             }
+        }, () -> {
+            log.close();
+            process = null;
+            commandChannel.close();
+            commandChannel = null;
+            onServerStop();
         });
 
-        // Check if server is up
-        getServerManager().getMyServer().getScheduler().schedule(new Runnable() {
-            @Override
-            public void run() {
-                if (process != null) {
-                    if (!serverPing()) {
-                        getServerManager().getMyServer().getScheduler().schedule(this, 2, TimeUnit.SECONDS);
-                        return;
-                    }
-                    onServerStart();
+        // Cancelled after the check above, before there was a process to kill
+        if (startCancelled.getAsBoolean()) {
+            killServer();
+        }
+
+        // Readiness is detected from output, or by the HealthMonitor
+    }
+
+    /**
+     * Return the start command with its tags replaced
+     *
+     * @throws InvalidServerException if a tag used by the command references itself
+     */
+    protected String replaceStartExecute() throws InvalidServerException {
+        try {
+            return newTemplater().replace(getTemplate().getServerStartExecute());
+        } catch (PlaceholderLoopException e) {
+            throw new InvalidServerException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Mark the server started if a line of output matches a ready pattern
+     *
+     * @param output process output
+     */
+    protected void checkReady(String output) {
+        if (getStatus() != ServerStatus.STARTING) {
+            return;
+        }
+
+        for (Pattern pattern : getTemplate().getServerStartReadyPatterns()) {
+            if (pattern.matcher(output).find()) {
+                markReady();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Send the commands of any trigger matching a line of output
+     *
+     * @param output process output
+     */
+    protected void checkTriggers(String output) {
+        TriggerMatcher triggerMatcher = getTemplate().getTriggerMatcher();
+        if (triggerMatcher.isEmpty()) {
+            return;
+        }
+
+        triggerMatcher.match(output, (trigger, matcher) -> {
+            // Tags are replaced before captures so output can't inject placeholders
+            SimpleTemplater st = newTemplater();
+            List<String> commands = new ArrayList<>();
+            try {
+                for (String command : trigger.getCommands()) {
+                    commands.add(TriggerMatcher.expand(st.replace(command), matcher));
                 }
+            } catch (PlaceholderLoopException e) {
+                e.printStackTrace();
+                return;
             }
-        }, 2, TimeUnit.SECONDS);
+
+            sendCommandAsync(commands);
+        });
     }
 
     /**
@@ -381,11 +1021,26 @@ public abstract class Server implements IServer {
      */
     protected abstract boolean serverPing();
 
+    @Override
+    public CompletableFuture<Boolean> ping() {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        getServerManager().getMyServer().getScheduler().runAsync(() -> future.complete(serverPing()));
+        return future;
+    }
+
+    @Override
+    public void markReady() {
+        if (process != null && getStatus() == ServerStatus.STARTING) {
+            onServerStart();
+        }
+    }
+
     /**
      * Called when the server has finished starting
      */
     protected void onServerStart() {
-        setStatus(ServerStatus.STARTED);
+        // May already be stopping
+        transition(ServerStatus.STARTING, ServerStatus.STARTED);
     }
 
     /**
@@ -396,12 +1051,8 @@ public abstract class Server implements IServer {
     protected abstract void handleOutput(String output);
 
     protected void stopServer() throws IOException, InvalidServerException {
-        setStatus(ServerStatus.STOPPING);
-
         // Send Stop Commands
-        for (String command : getTemplate().getServerStopCommands()) {
-            sendCommand(command);
-        }
+        sendCommandAsync(getTemplate().getServerStopCommands());
 
         // Give it time to shutdown
         getServerManager().getMyServer().getScheduler().schedule(() -> {
@@ -426,11 +1077,80 @@ public abstract class Server implements IServer {
 
     @Override
     public void sendCommand(String command) throws InvalidServerException, IOException {
-        if (processInput == null) {
-            throw new InvalidServerException("Server is not accepting commands.");
+        CompletableFuture<Void> future = sendCommandAsync(command);
+
+        // Only refusals are reported here, the write itself happens later
+        if (future.isCompletedExceptionally()) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof InvalidServerException) {
+                    throw (InvalidServerException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> sendCommandAsync(String command) {
+        return sendCommandAsync(Collections.singletonList(command));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendCommandAsync(Collection<String> commands) {
+        CommandChannel channel = commandChannel;
+        if (channel == null) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new InvalidServerException("Server is not accepting commands."));
+            return future;
+        }
+
+        return channel.send(commands);
+    }
+
+    @RequiredArgsConstructor
+    protected static class StatusWaiter {
+        private final CompletableFuture<ServerStatus> future;
+        private final Set<ServerStatus> success;
+        private final Set<ServerStatus> failure;
+
+        /**
+         * Complete our future if status is one we are waiting on
+         *
+         * @return true if the future was completed
+         */
+        boolean accept(ServerStatus status) {
+            if (success.contains(status)) {
+                future.complete(status);
+                return true;
+            }
+            if (failure.contains(status)) {
+                future.completeExceptionally(new InvalidServerException("Server is now " + status));
+                return true;
+            }
+            return false;
         }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    protected static class RenderedFile {
+        private final CompiledTemplate template;
+        private final Map<String, String> values;
+        private final long lastModified;
+        private final long size;
 
-        processInput.write(command + "\n");
-        processInput.flush();
+        /**
+         * Return true if the file hasn't been changed since it was rendered
+         */
+        public boolean isCurrent(Path path) throws IOException {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                return attrs.lastModifiedTime().toMillis() == lastModified && attrs.size() == size;
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
     }
 }
@@ -24,12 +24,16 @@
 
 package au.com.grieve.myserver.templates.server;
 
+import au.com.grieve.myserver.ConsoleLogSink;
 import au.com.grieve.myserver.TemplateManager;
+import au.com.grieve.myserver.TriggerMatcher;
 import au.com.grieve.myserver.api.ServerStatus;
+import au.com.grieve.myserver.api.templates.server.IServer;
 import au.com.grieve.myserver.api.templates.server.IServerTemplate;
 import au.com.grieve.myserver.exceptions.InvalidServerException;
 import au.com.grieve.myserver.exceptions.InvalidTemplateException;
 import au.com.grieve.myserver.exceptions.NoSuchTemplateException;
+import au.com.grieve.myserver.exceptions.PlaceholderLoopException;
 import au.com.grieve.myserver.templates.TagsTemplate;
 import com.fasterxml.jackson.databind.JsonNode;
 import lombok.Getter;
@@ -37,11 +41,31 @@ import lombok.ToString;
 import org.apache.commons.io.FileUtils;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * A template for a server
@@ -49,11 +73,41 @@ import java.util.UUID;
 @Getter
 @ToString(callSuper = true)
 public abstract class ServerTemplate extends TagsTemplate implements IServerTemplate {
+    // Files servers only read, so safe to share through a hard link. Plugin jars aren't, as Bukkit's update folder
+    // rewrites them in place
+    public static final List<String> DEFAULT_CREATE_LINK = Collections.unmodifiableList(Arrays.asList(
+            "*.jar", "libraries/**", "versions/**"
+    ));
+
+    // Written to a server folder once its links match the template's link and writable lists
+    public static final String LINK_STAMP = "link.stamp";
+
     private final String serverStartExecute;
     private final List<String> serverStartCommands = new ArrayList<>();
     private final int serverStartDelay;
+    private final List<String> serverStartReady = new ArrayList<>();
+    @ToString.Exclude
+    private final List<Pattern> serverStartReadyPatterns = new ArrayList<>();
     private final List<String> serverStopCommands = new ArrayList<>();
     private final int serverStopWait;
+    private final TransportEnum serverTransport;
+    private final CreateModeEnum serverCreateMode;
+    private final List<String> serverCreateLink = new ArrayList<>();
+    @ToString.Exclude
+    private final List<PathMatcher> linkMatchers = new ArrayList<>();
+    private final List<String> serverCreateWritable = new ArrayList<>();
+    @ToString.Exclude
+    private final List<PathMatcher> writableMatchers = new ArrayList<>();
+    private final TriggerMatcher triggerMatcher;
+    private final ConsoleLogSink.Level serverLogForward;
+    private final int serverLogRate;
+    private final int serverIdleStop;
+    private final boolean serverIdleStart;
+    private final int serverIdleHibernate;
+    private final boolean serverIdleReclaim;
+    private final int serverPoolSize;
+    private final boolean serverPoolHibernate;
+    private final List<String> serverPoolReload = new ArrayList<>();
 
     /**
      * Load Template from a JsonNode
@@ -67,9 +121,48 @@ public abstract class ServerTemplate extends TagsTemplate implements IServerTemp
         String serverStartExecute = null;
         boolean foundServerStartCommands = false;
         Integer serverStartDelay = null;
+        boolean foundServerStartReady = false;
         boolean foundServerStopCommands = false;
         Integer serverStopWait = null;
+        TransportEnum serverTransport = null;
+        CreateModeEnum serverCreateMode = null;
+        boolean foundServerCreateLink = false;
+        boolean foundServerCreateWritable = false;
+        Map<String, TriggerMatcher.Trigger> triggers = new LinkedHashMap<>();
+        ConsoleLogSink.Level serverLogForward = null;
+        Integer serverLogRate = null;
+        Integer serverIdleStop = null;
+        Boolean serverIdleStart = null;
+        Integer serverIdleHibernate = null;
+        Boolean serverIdleReclaim = null;
+        Integer serverPoolSize = null;
+        Boolean serverPoolHibernate = null;
+        boolean foundServerPoolReload = false;
         for (JsonNode n : getAllNodes()) {
+            if (n.has("triggers")) {
+                Iterator<Map.Entry<String, JsonNode>> iter = n.get("triggers").fields();
+                while (iter.hasNext()) {
+                    Map.Entry<String, JsonNode> entry = iter.next();
+                    if (triggers.containsKey(entry.getKey()) || !entry.getValue().has("match")) {
+                        continue;
+                    }
+
+                    List<String> commands = new ArrayList<>();
+                    if (entry.getValue().has("commands")) {
+                        for (JsonNode item : entry.getValue().get("commands")) {
+                            commands.add(item.asText());
+                        }
+                    }
+
+                    try {
+                        triggers.put(entry.getKey(), new TriggerMatcher.Trigger(entry.getKey(), entry.getValue().get("match").asText(), commands));
+                    } catch (PatternSyntaxException e) {
+                        throw new InvalidTemplateException("Invalid trigger pattern for " + entry.getKey() + ": " + e.getMessage());
+                    }
+                }
+            }
+
+
             if (n.has("server")) {
                 JsonNode serverNode = n.get("server");
 
@@ -87,6 +180,17 @@ public abstract class ServerTemplate extends TagsTemplate implements IServerTemp
                     if (serverStartDelay == null && serverStartNode.has("delay")) {
                         serverStartDelay = serverStartNode.get("delay").asInt();
                     }
+                    if (!foundServerStartReady && serverStartNode.has("ready")) {
+                        foundServerStartReady = true;
+                        for (JsonNode item : serverStartNode.get("ready")) {
+                            try {
+                                serverStartReadyPatterns.add(Pattern.compile(item.asText()));
+                            } catch (PatternSyntaxException e) {
+                                throw new InvalidTemplateException("Invalid server.start.ready pattern: " + item.asText());
+                            }
+                            serverStartReady.add(item.asText());
+                        }
+                    }
                 }
 
                 if (serverNode.has("stop")) {
@@ -101,11 +205,112 @@ public abstract class ServerTemplate extends TagsTemplate implements IServerTemp
                         serverStopWait = serverStopNode.get("wait").asInt();
                     }
                 }
+
+                if (serverNode.has("log")) {
+                    JsonNode serverLogNode = serverNode.get("log");
+                    if (serverLogForward == null && serverLogNode.has("forward")) {
+                        try {
+                            serverLogForward = ConsoleLogSink.Level.valueOf(serverLogNode.get("forward").asText().toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            throw new InvalidTemplateException("Invalid log forward level: " + serverLogNode.get("forward").asText());
+                        }
+                    }
+                    if (serverLogRate == null && serverLogNode.has("rate")) {
+                        serverLogRate = serverLogNode.get("rate").asInt();
+                    }
+                }
+
+                if (serverTransport == null && serverNode.has("transport")) {
+                    try {
+                        serverTransport = TransportEnum.valueOf(serverNode.get("transport").asText().toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new InvalidTemplateException("Invalid transport: " + serverNode.get("transport").asText());
+                    }
+                }
+
+                if (serverNode.has("idle")) {
+                    JsonNode serverIdleNode = serverNode.get("idle");
+                    if (serverIdleStop == null && serverIdleNode.has("stop")) {
+                        serverIdleStop = serverIdleNode.get("stop").asInt();
+                    }
+                    if (serverIdleStart == null && serverIdleNode.has("start")) {
+                        serverIdleStart = serverIdleNode.get("start").asBoolean();
+                    }
+                    if (serverIdleHibernate == null && serverIdleNode.has("hibernate")) {
+                        serverIdleHibernate = serverIdleNode.get("hibernate").asInt();
+                    }
+                    if (serverIdleReclaim == null && serverIdleNode.has("reclaim")) {
+                        serverIdleReclaim = serverIdleNode.get("reclaim").asBoolean();
+                    }
+                }
+
+                if (serverNode.has("pool")) {
+                    JsonNode serverPoolNode = serverNode.get("pool");
+                    if (serverPoolSize == null && serverPoolNode.has("size")) {
+                        serverPoolSize = serverPoolNode.get("size").asInt();
+                    }
+                    if (serverPoolHibernate == null && serverPoolNode.has("hibernate")) {
+                        serverPoolHibernate = serverPoolNode.get("hibernate").asBoolean();
+                    }
+                    if (!foundServerPoolReload && serverPoolNode.has("reload")) {
+                        foundServerPoolReload = true;
+                        for (JsonNode item : serverPoolNode.get("reload")) {
+                            serverPoolReload.add(item.asText());
+                        }
+                    }
+                }
+
+                if (serverNode.has("create")) {
+                    JsonNode serverCreateNode = serverNode.get("create");
+                    if (serverCreateMode == null && serverCreateNode.has("mode")) {
+                        try {
+                            serverCreateMode = CreateModeEnum.valueOf(serverCreateNode.get("mode").asText().toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            throw new InvalidTemplateException("Invalid create mode: " + serverCreateNode.get("mode").asText());
+                        }
+                    }
+                    if (!foundServerCreateLink && serverCreateNode.has("link")) {
+                        foundServerCreateLink = true;
+                        for (JsonNode item : serverCreateNode.get("link")) {
+                            serverCreateLink.add(item.asText());
+                        }
+                    }
+                    if (!foundServerCreateWritable && serverCreateNode.has("writable")) {
+                        foundServerCreateWritable = true;
+                        for (JsonNode item : serverCreateNode.get("writable")) {
+                            serverCreateWritable.add(item.asText());
+                        }
+                    }
+                }
             }
         }
         this.serverStartExecute = serverStartExecute;
         this.serverStartDelay = serverStartDelay != null ? serverStartDelay : 0;
         this.serverStopWait = serverStopWait != null ? serverStopWait : 300;
+        this.serverTransport = serverTransport != null ? serverTransport : TransportEnum.TCP;
+        if (this.serverTransport == TransportEnum.UNIX && !isUnixSocketSupported()) {
+            throw new InvalidTemplateException("Transport unix is only supported by Paper servers");
+        }
+        this.serverCreateMode = serverCreateMode != null ? serverCreateMode : CreateModeEnum.COPY;
+        this.serverLogForward = serverLogForward != null ? serverLogForward : ConsoleLogSink.Level.WARN;
+        this.serverLogRate = serverLogRate != null ? serverLogRate : 20;
+        this.serverIdleStop = serverIdleStop != null ? serverIdleStop : 0;
+        this.serverIdleStart = serverIdleStart != null ? serverIdleStart : false;
+        this.serverIdleHibernate = serverIdleHibernate != null ? serverIdleHibernate : 0;
+        this.serverIdleReclaim = serverIdleReclaim != null ? serverIdleReclaim : false;
+        this.serverPoolSize = serverPoolSize != null ? serverPoolSize : 0;
+        this.serverPoolHibernate = serverPoolHibernate != null ? serverPoolHibernate : false;
+        this.triggerMatcher = triggers.isEmpty() ? TriggerMatcher.EMPTY : new TriggerMatcher(new ArrayList<>(triggers.values()));
+
+        if (!foundServerCreateLink) {
+            serverCreateLink.addAll(DEFAULT_CREATE_LINK);
+        }
+        for (String pattern : serverCreateLink) {
+            linkMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+        for (String pattern : serverCreateWritable) {
+            writableMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
     }
 
     /**
@@ -126,18 +331,35 @@ public abstract class ServerTemplate extends TagsTemplate implements IServerTemp
         // Create a new random id for server
         UUID uuid = UUID.randomUUID();
 
-        // Create path and copy all files
+        // Create path and register server before copying files so it can be found straight away
         Path serverPath = getTemplateManager().getMyServer().getConfig().getFolderConfig().getServersPath().resolve(uuid.toString());
         Files.createDirectories(serverPath);
-        FileUtils.copyDirectory(getTemplatePath().resolve("files").toFile(), serverPath.resolve("files").toFile());
 
         Server server = newServer(serverPath);
         server.setName(name);
         server.setUuid(uuid);
         server.setStatus(ServerStatus.STOPPED);
-        server.save();
-        server.updateFiles(TemplateFileEnum.STATIC);
-        prepareServer(server);
+        server.saveNow();
+        getTemplateManager().getMyServer().getServerManager().registerServer(server);
+
+        try {
+            switch (serverCreateMode) {
+                case LINK:
+                    linkFiles(getTemplatePath().resolve("files"), serverPath.resolve("files"));
+                    writeLinkStamp(serverPath);
+                    break;
+                default:
+                    FileUtils.copyDirectory(getTemplatePath().resolve("files").toFile(), serverPath.resolve("files").toFile());
+            }
+            server.updateFiles(TemplateFileEnum.STATIC);
+            prepareServer(server);
+        } catch (PlaceholderLoopException e) {
+            server.destroy();
+            throw new InvalidServerException(e.getMessage(), e);
+        } catch (Exception e) {
+            server.destroy();
+            throw e;
+        }
         return server;
     }
 
@@ -152,5 +374,156 @@ public abstract class ServerTemplate extends TagsTemplate implements IServerTemp
         return server;
     }
 
+    /**
+     * Return the path of the cached server jar
+     */
+    protected abstract Path getCachedServer();
 
+    /**
+     * Return true if the server can listen on a unix socket given as its server-ip
+     */
+    protected boolean isUnixSocketSupported() {
+        return false;
+    }
+
+    @Override
+    public boolean isProvisioned() {
+        return Files.exists(getCachedServer());
+    }
+
+    /**
+     * Prepare Server Files
+     * <p>
+     * Waits for the server jar to be provisioned then links it into the server
+     */
+    @Override
+    public void prepareServer(IServer server) throws IOException {
+        Path cachedServer;
+        try {
+            cachedServer = provisionServer().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+
+        // Link to our files area (done all the time in case the server is updated)
+        Path executable = server.getServerPath().resolve("files").resolve("server.jar");
+        getTemplateManager().getMyServer().getArtifactStore().install(cachedServer, executable);
+    }
+
+    /**
+     * Populate a server's files by hard linking the template's files
+     * <p>
+     * Only files matching the link list that aren't writable are linked, as a server rewriting a linked file in place
+     * changes it for the template and every other server. Linked files are made read-only, like artifacts, so a write
+     * in place fails rather than spreading. Everything else, including files that get rendered, is copied.
+     */
+    protected void linkFiles(Path source, Path target) throws IOException {
+        if (!Files.isDirectory(source)) {
+            return;
+        }
+
+        Set<Path> rendered = new HashSet<>();
+        for (Collection<Path> paths : getTemplateFiles().values()) {
+            for (Path path : paths) {
+                rendered.add(source.resolve(path).normalize());
+            }
+        }
+
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = source.relativize(file);
+                Path destination = target.resolve(relative.toString());
+                if (!rendered.contains(file.normalize()) && matches(linkMatchers, relative) && !matches(writableMatchers, relative)) {
+                    Path real = file.toRealPath();
+                    try {
+                        //noinspection ResultOfMethodCallIgnored
+                        real.toFile().setWritable(false, false);
+                        Files.createLink(destination, real);
+                        return FileVisitResult.CONTINUE;
+                    } catch (IOException | UnsupportedOperationException ignored) {
+                        // Different filesystem or no hard link support
+                    }
+                }
+                Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                //noinspection ResultOfMethodCallIgnored
+                destination.toFile().setWritable(true);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Replace any files still linked to the template that the server may write to with a private copy
+     * <p>
+     * This catches servers linked with an older link or writable list. It only runs when those lists have changed
+     * since the server was last checked.
+     */
+    @Override
+    public void copyUpFiles(IServer server) throws IOException {
+        Path source = getTemplatePath().resolve("files");
+        if (serverCreateMode != CreateModeEnum.LINK || !Files.isDirectory(source) || isLinkStampCurrent(server.getServerPath())) {
+            return;
+        }
+
+        Path target = server.getServerPath().resolve("files");
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = source.relativize(file);
+                if (matches(linkMatchers, relative) && !matches(writableMatchers, relative)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                Path destination = target.resolve(relative.toString());
+                if (Files.exists(destination) && Files.isSameFile(file, destination)) {
+                    Path temp = Files.createTempFile(destination.getParent(), ".copyup-", ".tmp");
+                    try {
+                        Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                        //noinspection ResultOfMethodCallIgnored
+                        temp.toFile().setWritable(true);
+                        Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(temp);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        writeLinkStamp(server.getServerPath());
+    }
+
+    /**
+     * Return what decides which files are linked, so a change to it can be noticed
+     */
+    protected String getLinkStamp() {
+        return "link=" + serverCreateLink + "\nwritable=" + serverCreateWritable + "\n";
+    }
+
+    protected boolean isLinkStampCurrent(Path serverPath) throws IOException {
+        Path stamp = serverPath.resolve(LINK_STAMP);
+        return Files.exists(stamp) && new String(Files.readAllBytes(stamp), StandardCharsets.UTF_8).equals(getLinkStamp());
+    }
+
+    protected void writeLinkStamp(Path serverPath) throws IOException {
+        Files.write(serverPath.resolve(LINK_STAMP), getLinkStamp().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path relative) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
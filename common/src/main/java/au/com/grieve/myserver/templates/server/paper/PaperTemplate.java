@@ -24,8 +24,8 @@
 
 package au.com.grieve.myserver.templates.server.paper;
 
+import au.com.grieve.myserver.ProvisioningService;
 import au.com.grieve.myserver.TemplateManager;
-import au.com.grieve.myserver.api.templates.server.IServer;
 import au.com.grieve.myserver.exceptions.InvalidTemplateException;
 import au.com.grieve.myserver.exceptions.NoSuchTemplateException;
 import au.com.grieve.myserver.templates.server.ServerTemplate;
@@ -40,7 +40,6 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -51,7 +50,6 @@ import java.util.concurrent.TimeUnit;
 public abstract class PaperTemplate extends ServerTemplate {
     private final String version;
     private final URL url;
-    private CompletableFuture<Boolean> updateServerFuture;
 
     /**
      * Load Server Template from a JsonNode
@@ -88,48 +86,38 @@ public abstract class PaperTemplate extends ServerTemplate {
     }
 
     /**
-     * Prepare Server Files
+     * Provision the server jar
      * <p>
-     * This may include downloading BuildUtils and updating the server
+     * This may include downloading Paperclip and patching the server
      */
     @Override
-    public void prepareServer(IServer server) throws IOException {
-        if (this.updateServerFuture == null) {
-            this.updateServerFuture = new CompletableFuture<>();
-
-            getTemplateManager().getMyServer().getScheduler().runAsync(() -> {
-                try {
-                    updateServerFuture.complete(updateServer());
-                } catch (IOException e) {
-                    updateServerFuture.complete(false);
-                }
-            });
+    public CompletableFuture<Path> provisionServer() {
+        ProvisioningService provisioningService = getTemplateManager().getMyServer().getProvisioningService();
+        // A jar still being written by a build isn't ready yet
+        if (!provisioningService.isProvisioning("paper", getVersion(), getUrl().toString()) && isProvisioned()) {
+            return CompletableFuture.completedFuture(getCachedServer());
         }
+        return provisioningService.provision("paper", getVersion(), getUrl().toString(), this::updateServer);
+    }
 
-        try {
-            this.updateServerFuture.get();
-            // Copy to our files area (done all the time in case the server is updated)
-            Path cacheFolder = getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath();
-            Path cachedServerPath = cacheFolder.resolve("servers").resolve("paper").resolve(getVersion());
-
-            Path executable = server.getServerPath().resolve("files").resolve("server.jar");
-            FileUtils.copyFile(cachedServerPath.resolve("paper-" + getVersion() + ".jar").toFile(), executable.toFile());
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
-        } finally {
-            this.updateServerFuture = null;
-        }
+    @Override
+    protected boolean isUnixSocketSupported() {
+        return true;
+    }
+
+    @Override
+    protected Path getCachedServer() {
+        return getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath()
+                .resolve("servers").resolve("paper").resolve(getVersion()).resolve("paper-" + getVersion() + ".jar");
     }
 
     /**
      * Takes care of downloading and patching files
      *
-     * @return true if anything happened
+     * @return path to the server jar
      * @throws IOException on error
      */
-    protected boolean updateServer() throws IOException {
-        boolean changed = false;
-
+    protected Path updateServer() throws IOException {
         Path cacheFolder = getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath();
         Path cachedServerPath = cacheFolder.resolve("servers").resolve("paper").resolve(getVersion());
         Files.createDirectories(cachedServerPath);
@@ -139,10 +127,9 @@ public abstract class PaperTemplate extends ServerTemplate {
         Path serverPath = cachedServerPath.resolve("paper-" + getVersion() + ".jar");
         if (!Files.exists(serverPath)) {
             downloadServer(serverPath.toFile());
-            changed = true;
         }
 
-        return changed;
+        return serverPath;
     }
 
     /**
@@ -24,8 +24,8 @@
 
 package au.com.grieve.myserver.templates.server.spigot;
 
+import au.com.grieve.myserver.ProvisioningService;
 import au.com.grieve.myserver.TemplateManager;
-import au.com.grieve.myserver.api.templates.server.IServer;
 import au.com.grieve.myserver.exceptions.InvalidTemplateException;
 import au.com.grieve.myserver.exceptions.NoSuchTemplateException;
 import au.com.grieve.myserver.templates.server.ServerTemplate;
@@ -40,7 +40,6 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -50,7 +49,6 @@ import java.util.concurrent.TimeUnit;
 @ToString(callSuper = true)
 public abstract class SpigotTemplate extends ServerTemplate {
     private final String version;
-    private CompletableFuture<Boolean> updateServerFuture;
 
     /**
      * Load Server Template from a JsonNode
@@ -77,48 +75,33 @@ public abstract class SpigotTemplate extends ServerTemplate {
     }
 
     /**
-     * Prepare Server Files
+     * Provision the server jar
      * <p>
      * This may include downloading BuildUtils and updating the server
      */
     @Override
-    public void prepareServer(IServer server) throws IOException {
-        if (this.updateServerFuture == null) {
-            this.updateServerFuture = new CompletableFuture<>();
-
-            getTemplateManager().getMyServer().getScheduler().runAsync(() -> {
-                try {
-                    updateServerFuture.complete(updateServer());
-                } catch (IOException e) {
-                    updateServerFuture.complete(false);
-                }
-            });
+    public CompletableFuture<Path> provisionServer() {
+        ProvisioningService provisioningService = getTemplateManager().getMyServer().getProvisioningService();
+        // A jar still being written by a build isn't ready yet
+        if (!provisioningService.isProvisioning("spigot", getVersion(), null) && isProvisioned()) {
+            return CompletableFuture.completedFuture(getCachedServer());
         }
+        return provisioningService.provision("spigot", getVersion(), null, this::updateServer);
+    }
 
-        try {
-            this.updateServerFuture.get();
-            // Copy to our files area (done all the time in case the server is updated)
-            Path cacheFolder = getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath();
-            Path cachedServerPath = cacheFolder.resolve("servers").resolve("spigot").resolve(getVersion());
-
-            Path executable = server.getServerPath().resolve("files").resolve("server.jar");
-            FileUtils.copyFile(cachedServerPath.resolve("spigot-" + getVersion() + ".jar").toFile(), executable.toFile());
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
-        } finally {
-            this.updateServerFuture = null;
-        }
+    @Override
+    protected Path getCachedServer() {
+        return getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath()
+                .resolve("servers").resolve("spigot").resolve(getVersion()).resolve("spigot-" + getVersion() + ".jar");
     }
 
     /**
      * Takes care of downloading and patching files
      *
-     * @return true if anything happened
+     * @return path to the server jar
      * @throws IOException on error
      */
-    protected boolean updateServer() throws IOException {
-        boolean changed = false;
-
+    protected Path updateServer() throws IOException {
         Path cacheFolder = getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath();
         Path cachedServerPath = cacheFolder.resolve("servers").resolve("spigot").resolve(getVersion());
         Files.createDirectories(cachedServerPath);
@@ -128,10 +111,9 @@ public abstract class SpigotTemplate extends ServerTemplate {
         Path serverPath = cachedServerPath.resolve("spigot-" + getVersion() + ".jar");
         if (!Files.exists(serverPath)) {
             downloadServer(serverPath.toFile());
-            changed = true;
         }
 
-        return changed;
+        return serverPath;
     }
 
     /**
@@ -24,8 +24,8 @@
 
 package au.com.grieve.myserver.templates.server.vanilla;
 
+import au.com.grieve.myserver.ProvisioningService;
 import au.com.grieve.myserver.TemplateManager;
-import au.com.grieve.myserver.api.templates.server.IServer;
 import au.com.grieve.myserver.exceptions.InvalidTemplateException;
 import au.com.grieve.myserver.exceptions.NoSuchTemplateException;
 import au.com.grieve.myserver.templates.server.ServerTemplate;
@@ -42,7 +42,6 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -54,7 +53,6 @@ import java.util.concurrent.TimeUnit;
 @ToString(callSuper = true)
 public abstract class VanillaTemplate extends ServerTemplate {
     private final String version;
-    private CompletableFuture<Boolean> updateServerFuture;
 
     /**
      * Load Server Template from a JsonNode
@@ -81,48 +79,33 @@ public abstract class VanillaTemplate extends ServerTemplate {
     }
 
     /**
-     * Prepare Server Files
+     * Provision the server jar
      * <p>
      * This may include downloading the vanilla server and patching it for IP Forwarding
      */
     @Override
-    public void prepareServer(IServer server) throws IOException {
-        if (this.updateServerFuture == null) {
-            this.updateServerFuture = new CompletableFuture<>();
-
-            getTemplateManager().getMyServer().getScheduler().runAsync(() -> {
-                try {
-                    updateServerFuture.complete(updateServer());
-                } catch (IOException e) {
-                    updateServerFuture.complete(false);
-                }
-            });
+    public CompletableFuture<Path> provisionServer() {
+        ProvisioningService provisioningService = getTemplateManager().getMyServer().getProvisioningService();
+        // A jar still being written by a build isn't ready yet
+        if (!provisioningService.isProvisioning("vanilla", getVersion(), null) && isProvisioned()) {
+            return CompletableFuture.completedFuture(getCachedServer());
         }
+        return provisioningService.provision("vanilla", getVersion(), null, this::updateServer);
+    }
 
-        try {
-            this.updateServerFuture.get();
-            // Copy to our files area (done all the time in case the server is updated)
-            Path cacheFolder = getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath();
-            Path cachedServerPath = cacheFolder.resolve("servers").resolve("vanilla").resolve(getVersion());
-
-            Path executable = server.getServerPath().resolve("files").resolve("server.jar");
-            FileUtils.copyFile(cachedServerPath.resolve("patched-server.jar").toFile(), executable.toFile());
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
-        } finally {
-            this.updateServerFuture = null;
-        }
+    @Override
+    protected Path getCachedServer() {
+        return getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath()
+                .resolve("servers").resolve("vanilla").resolve(getVersion()).resolve("patched-server.jar");
     }
 
     /**
      * Takes care of downloading and patching files
      *
-     * @return true if anything happened
+     * @return path to the server jar
      * @throws IOException on error
      */
-    protected boolean updateServer() throws IOException {
-        boolean changed = false;
-
+    protected Path updateServer() throws IOException {
         Path cacheFolder = getTemplateManager().getMyServer().getConfig().getFolderConfig().getCachePath();
         Path cachedServerPath = cacheFolder.resolve("servers").resolve("vanilla").resolve(getVersion());
         Files.createDirectories(cachedServerPath);
@@ -132,16 +115,14 @@ public abstract class VanillaTemplate extends ServerTemplate {
         Path vanillaServer = cachedServerPath.resolve("original-server.jar");
         if (!Files.exists(vanillaServer)) {
             downloadServer(vanillaServer.toFile());
-            changed = true;
         }
 
         // Patch the file for IP-Forward if we don't already have one cached
         Path patchedServer = cachedServerPath.resolve("patched-server.jar");
         if (!Files.exists(patchedServer)) {
             patchServer(vanillaServer.toFile(), patchedServer.toFile());
-            changed = true;
         }
-        return changed;
+        return patchedServer;
     }
 
     /**
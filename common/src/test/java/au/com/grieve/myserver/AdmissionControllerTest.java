@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.api.BaseConfig;
+import au.com.grieve.myserver.api.ServerStatus;
+import au.com.grieve.myserver.api.templates.server.IServer;
+import au.com.grieve.myserver.exceptions.InvalidServerException;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+    private static final long MB = AdmissionController.MB;
+
+    private static AdmissionController controller(long memory, int maxStarting) {
+        return new AdmissionController(new BaseConfig.BaseLimitsSection() {
+            @Override
+            public long getMemory() {
+                return memory;
+            }
+
+            @Override
+            public long getMemoryOverhead() {
+                return 0;
+            }
+
+            @Override
+            public int getMaxStarting() {
+                return maxStarting;
+            }
+        });
+    }
+
+    private static IServer server() {
+        UUID uuid = UUID.randomUUID();
+        return (IServer) Proxy.newProxyInstance(IServer.class.getClassLoader(), new Class<?>[]{IServer.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUuid":
+                            return uuid;
+                        case "hashCode":
+                            return uuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static boolean granted(AdmissionController.Ticket ticket) {
+        return ticket.getGranted().isDone() && !ticket.getGranted().isCompletedExceptionally();
+    }
+
+    @Test
+    public void queuesInOrderOfArrival() throws InvalidServerException {
+        AdmissionController controller = controller(1000, 10);
+        IServer a = server();
+        IServer b = server();
+        IServer c = server();
+
+        AdmissionController.Ticket ta = controller.admit(a, 600 * MB);
+        AdmissionController.Ticket tb = controller.admit(b, 600 * MB);
+        AdmissionController.Ticket tc = controller.admit(c, 100 * MB);
+
+        // c would fit but doesn't get to jump ahead of b
+        assertTrue(granted(ta));
+        assertFalse(granted(tb));
+        assertFalse(granted(tc));
+        assertEquals(1, controller.getPosition(b));
+        assertEquals(2, controller.getPosition(c));
+        assertNull(controller.tryAdmit(server(), 100 * MB));
+
+        // Once a is down both fit
+        controller.onStatusChange(a, ServerStatus.STARTED, ServerStatus.STOPPED);
+        assertTrue(granted(tb));
+        assertTrue(granted(tc));
+        assertEquals(0, controller.getQueueSize());
+    }
+
+    @Test
+    public void limitsServersStarting() throws InvalidServerException {
+        AdmissionController controller = controller(1000, 1);
+        IServer a = server();
+        IServer b = server();
+
+        AdmissionController.Ticket ta = controller.admit(a, 100 * MB);
+        AdmissionController.Ticket tb = controller.admit(b, 100 * MB);
+        assertTrue(granted(ta));
+        assertFalse(granted(tb));
+
+        // Still starting
+        controller.onStatusChange(a, ServerStatus.INIT, ServerStatus.STARTING);
+        assertFalse(granted(tb));
+
+        controller.onStatusChange(a, ServerStatus.STARTING, ServerStatus.STARTED);
+        assertTrue(granted(tb));
+        assertTrue(controller.isAdmitted(a));
+    }
+
+    @Test
+    public void releaseLetsNextStart() throws InvalidServerException {
+        AdmissionController controller = controller(1000, 10);
+        IServer a = server();
+        IServer b = server();
+        IServer c = server();
+
+        AdmissionController.Ticket ta = controller.admit(a, 900 * MB);
+        AdmissionController.Ticket tb = controller.admit(b, 900 * MB);
+        AdmissionController.Ticket tc = controller.admit(c, 900 * MB);
+
+        // Cancelling a queued start fails its ticket and moves the rest up
+        controller.release(tb);
+        assertTrue(tb.getGranted().isCompletedExceptionally());
+        assertEquals(1, controller.getPosition(c));
+
+        controller.release(ta);
+        assertTrue(granted(tc));
+        assertFalse(controller.isAdmitted(a));
+    }
+
+    @Test
+    public void tryAdmitWhenIdle() throws InvalidServerException {
+        AdmissionController controller = controller(1000, 10);
+        AdmissionController.Ticket ticket = controller.tryAdmit(server(), 500 * MB);
+        assertNotNull(ticket);
+        assertTrue(granted(ticket));
+        assertNull(controller.tryAdmit(server(), 600 * MB));
+    }
+
+    @Test(expected = InvalidServerException.class)
+    public void rejectsServerLargerThanBudget() throws InvalidServerException {
+        controller(1000, 10).admit(server(), 2000 * MB);
+    }
+
+    @Test(expected = InvalidServerException.class)
+    public void rejectsServerAlreadyQueued() throws InvalidServerException {
+        AdmissionController controller = controller(1000, 10);
+        IServer server = server();
+        controller.admit(server, 100 * MB);
+        controller.admit(server, 100 * MB);
+    }
+}
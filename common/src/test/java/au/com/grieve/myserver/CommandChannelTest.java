@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandChannelTest {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor = tasks::add;
+
+    private void runTasks() {
+        for (Runnable task; (task = tasks.poll()) != null; ) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void batchesCommands() {
+        Output output = new Output();
+        CommandChannel channel = new CommandChannel(output, StandardCharsets.UTF_8, executor);
+
+        CompletableFuture<Void> first = channel.send("say one");
+        CompletableFuture<Void> second = channel.send(Arrays.asList("say two", "say three"));
+        runTasks();
+
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertEquals("say one\nsay two\nsay three\n", output.toString());
+        assertEquals(1, output.flushes);
+    }
+
+    @Test
+    public void closeFailsWaitingCommands() {
+        Output output = new Output();
+        CommandChannel channel = new CommandChannel(output, StandardCharsets.UTF_8, executor);
+
+        CompletableFuture<Void> future = channel.send("stop");
+        channel.close();
+        runTasks();
+
+        assertTrue(future.isCompletedExceptionally());
+        assertTrue(output.closed);
+        assertTrue(channel.send("stop").isCompletedExceptionally());
+    }
+
+    @Test
+    public void closeDuringDrainClosesOutput() {
+        Output output = new Output();
+        CommandChannel channel = new CommandChannel(output, StandardCharsets.UTF_8, executor);
+        output.onFlush = channel::close;
+
+        channel.send("stop");
+        runTasks();
+
+        assertTrue(output.closed);
+    }
+
+    @Test
+    public void pausedChannelQueuesUntilResumed() {
+        Output output = new Output();
+        CommandChannel channel = new CommandChannel(output, StandardCharsets.UTF_8, executor);
+
+        channel.pause();
+        CompletableFuture<Void> future = channel.send("say one");
+        runTasks();
+
+        assertTrue(!future.isDone());
+        assertEquals("", output.toString());
+
+        channel.resume();
+        runTasks();
+
+        assertTrue(future.isDone() && !future.isCompletedExceptionally());
+        assertEquals("say one\n", output.toString());
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+        private Runnable onFlush;
+        private int flushes;
+        private boolean closed;
+
+        @Override
+        public void flush() {
+            flushes++;
+            if (onFlush != null) {
+                onFlush.run();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new String(toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
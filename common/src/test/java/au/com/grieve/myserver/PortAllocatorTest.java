@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.exceptions.PortNotFoundException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PortAllocatorTest {
+
+    /**
+     * Allocator that treats the given ports as taken on the host, without binding anything
+     */
+    private static PortAllocator allocator(int start, int amount, Integer... foreign) {
+        Set<Integer> taken = new HashSet<>(Arrays.asList(foreign));
+        return new PortAllocator(start, amount) {
+            @Override
+            protected boolean probe(int port) {
+                return !taken.contains(port);
+            }
+        };
+    }
+
+    @Test
+    public void allocatesEveryPortOnce() throws PortNotFoundException {
+        PortAllocator allocator = allocator(30000, 100);
+        Set<Integer> ports = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            int port = allocator.allocate(null);
+            assertTrue(port >= 30000 && port < 30100);
+            assertTrue(ports.add(port));
+            assertTrue(allocator.isUsed(port));
+        }
+    }
+
+    @Test(expected = PortNotFoundException.class)
+    public void failsWhenFull() throws PortNotFoundException {
+        PortAllocator allocator = allocator(30000, 2);
+        allocator.allocate(null);
+        allocator.allocate(null);
+        allocator.allocate(null);
+    }
+
+    @Test(expected = PortNotFoundException.class)
+    public void failsWhenEmpty() throws PortNotFoundException {
+        allocator(30000, 0).allocate(30000);
+    }
+
+    @Test
+    public void prefersPreviousPort() throws PortNotFoundException {
+        PortAllocator allocator = allocator(30000, 10);
+        assertEquals(30007, allocator.allocate(30007));
+
+        // Taken, or outside the range, so another is found
+        int port = allocator.allocate(30007);
+        assertTrue(port != 30007 && port >= 30000 && port < 30010);
+        port = allocator.allocate(40000);
+        assertTrue(port >= 30000 && port < 30010);
+    }
+
+    @Test
+    public void releaseMakesPortAvailable() throws PortNotFoundException {
+        PortAllocator allocator = allocator(30000, 1);
+        int port = allocator.allocate(null);
+        allocator.release(port);
+        assertFalse(allocator.isUsed(port));
+        assertEquals(port, allocator.allocate(null));
+
+        // Releasing twice or outside the range is harmless
+        allocator.release(port);
+        allocator.release(port);
+        allocator.release(40000);
+        assertFalse(allocator.isUsed(port));
+    }
+
+    @Test
+    public void skipsPortsInUseOnHost() throws PortNotFoundException {
+        PortAllocator allocator = allocator(30000, 4, 30000, 30002);
+        Set<Integer> ports = new HashSet<>(Arrays.asList(allocator.allocate(null), allocator.allocate(30002)));
+        assertEquals(new HashSet<>(Arrays.asList(30001, 30003)), ports);
+        assertFalse(allocator.isUsed(30000));
+        assertFalse(allocator.isUsed(30002));
+    }
+
+    @Test
+    public void concurrentAllocationsAreUnique() throws Exception {
+        PortAllocator allocator = allocator(30000, 256);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 256; i++) {
+                futures.add(executor.submit(() -> allocator.allocate(null)));
+            }
+
+            Set<Integer> ports = new HashSet<>();
+            for (Future<Integer> future : futures) {
+                assertTrue(ports.add(future.get()));
+            }
+            assertEquals(256, ports.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
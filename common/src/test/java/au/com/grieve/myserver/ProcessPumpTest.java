@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessPumpTest {
+
+    private static List<String> pump(String output) {
+        List<String> lines = new ArrayList<>();
+        ProcessPump.Pumped pumped = new ProcessPump.Pumped(new ExitedProcess(output), StandardCharsets.UTF_8, lines::add, () -> {
+        }, Runnable::run);
+
+        CharBuffer chars = CharBuffer.allocate(ProcessPump.BUFFER_SIZE);
+        try {
+            while (pumped.pump(chars)) {
+                // Read everything available
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        pumped.finish(chars);
+        return lines;
+    }
+
+    @Test
+    public void splitsLines() {
+        assertEquals(Arrays.asList("one", "two", "three"), pump("one\r\ntwo\nthree"));
+    }
+
+    @Test
+    public void longLinesArePassedOnInPieces() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ProcessPump.MAX_LINE_LENGTH * 2 + 100; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String longLine = sb.toString();
+
+        List<String> lines = pump(longLine + "\nend\n");
+
+        StringBuilder joined = new StringBuilder();
+        for (String line : lines.subList(0, lines.size() - 1)) {
+            assertTrue(line.length() <= ProcessPump.MAX_LINE_LENGTH);
+            joined.append(line);
+        }
+        assertEquals(longLine, joined.toString());
+        assertEquals("end", lines.get(lines.size() - 1));
+    }
+
+    private static class ExitedProcess extends Process {
+        private final InputStream input;
+
+        ExitedProcess(String output) {
+            this.input = new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() {
+            return 0;
+        }
+
+        @Override
+        public int exitValue() {
+            return 0;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import au.com.grieve.myserver.exceptions.PlaceholderLoopException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SimpleTemplaterTest {
+    private static final FileTime OLD = FileTime.fromMillis(1000000000000L);
+
+    private Path folder;
+    private Path in;
+    private Path out;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("templater");
+        in = folder.resolve("in.properties");
+        out = folder.resolve("out.properties");
+        write(in, "port={{PORT}}\ncreated={{TIME}}\n");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void render() throws Exception {
+        templater("25565", "1").process(in, out);
+        assertEquals("port=25565\ncreated=1\n", read(out));
+    }
+
+    @Test
+    public void unchangedOutputIsNotWritten() throws Exception {
+        templater("25565", "1").process(in, out);
+        Files.setLastModifiedTime(out, OLD);
+
+        templater("25565", "1").process(in, out);
+        assertEquals(OLD, Files.getLastModifiedTime(out));
+    }
+
+    @Test
+    public void stableValuesIgnoreVolatile() throws Exception {
+        CompiledTemplate template = CompiledTemplate.fromFile(in, Charset.defaultCharset());
+
+        assertEquals(Collections.singletonMap("PORT", "25565"), templater("25565", "1").getStableValues(template));
+        assertEquals(templater("25565", "1").getStableValues(template), templater("25565", "2").getStableValues(template));
+    }
+
+    @Test
+    public void changedValueIsWritten() throws Exception {
+        templater("25565", "1").process(in, out);
+        templater("25566", "2").process(in, out);
+        assertEquals("port=25566\ncreated=2\n", read(out));
+    }
+
+    @Test
+    public void editedFileIsWritten() throws Exception {
+        templater("25565", "1").process(in, out);
+        write(out, "port=12345\ncreated=1\n");
+        Files.setLastModifiedTime(out, OLD);
+
+        templater("25565", "1").process(in, out);
+        assertEquals("port=25565\ncreated=1\n", read(out));
+    }
+
+    @Test
+    public void truncatedFileIsWritten() throws Exception {
+        templater("25565", "1").process(in, out);
+        write(out, "");
+
+        templater("25565", "1").process(in, out);
+        assertEquals("port=25565\ncreated=1\n", read(out));
+    }
+
+    @Test
+    public void unreachedLoopIsIgnored() throws Exception {
+        SimpleTemplater st = new SimpleTemplater()
+                .register("A", "{{B}}")
+                .register("B", "{{A}}")
+                .register("C", "{{D}}")
+                .register("D", "d");
+        assertEquals("d", st.replace("{{C}}"));
+    }
+
+    @Test
+    public void reachedLoopFails() throws Exception {
+        SimpleTemplater st = new SimpleTemplater()
+                .register("A", "{{B}}")
+                .register("B", "{{A}}");
+        try {
+            st.replace("{{A}}");
+            fail("Expected a placeholder loop");
+        } catch (PlaceholderLoopException ignored) {
+        }
+    }
+
+    private SimpleTemplater templater(String port, String time) {
+        return new SimpleTemplater()
+                .register("PORT", port)
+                .registerVolatile("TIME", time);
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.write(path, content.getBytes(Charset.defaultCharset()));
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TriggerMatcherTest {
+
+    @Test
+    public void requiredLiteral() {
+        assertEquals("Done (", TriggerMatcher.requiredLiteral("Done \\(.*\\)!"));
+        assertEquals(" joined the game", TriggerMatcher.requiredLiteral("^(\\w+) joined the game$"));
+        assertEquals("Hell", TriggerMatcher.requiredLiteral("Hello?"));
+        assertNull(TriggerMatcher.requiredLiteral(".*"));
+        assertNull(TriggerMatcher.requiredLiteral("a|b"));
+    }
+
+    @Test
+    public void requiredLiterals() {
+        assertEquals(Arrays.asList("started", "stopped"), TriggerMatcher.requiredLiterals("started|stopped"));
+        assertNull(TriggerMatcher.requiredLiterals("started|.*"));
+    }
+
+    @Test
+    public void escapesWithPayload() {
+        assertNull(TriggerMatcher.requiredLiteral("\\x41BC"));
+        assertNull(TriggerMatcher.requiredLiteral("a(?<n>b)c\\k<n>"));
+    }
+
+    /**
+     * The prefilter may let lines through that the pattern rejects, but must never reject a line the pattern finds
+     */
+    @Test
+    public void prefilterAgreesWithPattern() {
+        List<String> patterns = Arrays.asList(
+                "\\x41BC", "\\u0041BC", "\\0101BC", "\\cJfoo", "a(?<n>b)c\\k<n>", "(a)b\\1", "\\p{Lu}pper",
+                "\\P{Lu}ower", "\\QA.B\\E", "Done \\(.*\\)!", "(?i)Joined", "(?i)left|quit", "x{2}y", "[a-z]+ok",
+                "\\bword\\b", "\\.dot"
+        );
+        List<String> lines = Arrays.asList(
+                "ABC", "xABC", "\nfoo", "abcb", "abab", "Upper", "lower", "A.B", "Done (1.2s)!", "player JOINED",
+                "QUIT", "xxy", "abcok", "a word here", ".dot", "41BC", "<n>", "u0041BC", ""
+        );
+
+        for (String regex : patterns) {
+            TriggerMatcher.Trigger trigger = new TriggerMatcher.Trigger("test", regex, Collections.emptyList());
+            Pattern pattern = Pattern.compile(regex);
+            for (String line : lines) {
+                if (trigger.getLiterals() != null && pattern.matcher(line).find()) {
+                    assertEquals(regex + " on " + line, true, trigger.mayMatch(line));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void match() {
+        TriggerMatcher matcher = new TriggerMatcher(Arrays.asList(
+                new TriggerMatcher.Trigger("join", "(\\w+) joined the game", Collections.singletonList("say hi $1")),
+                new TriggerMatcher.Trigger("any", "^\\[.*\\]", Collections.emptyList())
+        ));
+
+        StringBuilder result = new StringBuilder();
+        matcher.match("Steve joined the game", (trigger, m) ->
+                result.append(TriggerMatcher.expand(trigger.getCommands().get(0), m)));
+        assertEquals("say hi Steve", result.toString());
+
+        result.setLength(0);
+        matcher.match("Steve left the game", (trigger, m) -> result.append(trigger.getName()));
+        assertFalse(result.length() > 0);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver.api;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import static au.com.grieve.myserver.api.ServerStatus.ERROR;
+import static au.com.grieve.myserver.api.ServerStatus.HIBERNATED;
+import static au.com.grieve.myserver.api.ServerStatus.INIT;
+import static au.com.grieve.myserver.api.ServerStatus.STARTED;
+import static au.com.grieve.myserver.api.ServerStatus.STARTING;
+import static au.com.grieve.myserver.api.ServerStatus.STOPPED;
+import static au.com.grieve.myserver.api.ServerStatus.STOPPING;
+import static au.com.grieve.myserver.api.ServerStatus.UNKNOWN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ServerStatusTest {
+
+    @Test
+    public void transitions() {
+        Map<ServerStatus, Set<ServerStatus>> expected = new EnumMap<>(ServerStatus.class);
+        expected.put(UNKNOWN, EnumSet.of(STOPPED, ERROR));
+        expected.put(ERROR, EnumSet.of(STOPPED, INIT));
+        expected.put(STOPPED, EnumSet.of(INIT, ERROR));
+        expected.put(INIT, EnumSet.of(STARTING, STOPPED, ERROR));
+        expected.put(STARTING, EnumSet.of(STARTED, STOPPING, STOPPED, ERROR));
+        expected.put(STARTED, EnumSet.of(STOPPING, STOPPED, ERROR, HIBERNATED));
+        expected.put(HIBERNATED, EnumSet.of(STARTED, STOPPED, ERROR));
+        expected.put(STOPPING, EnumSet.of(STOPPED, ERROR));
+        assertEquals(EnumSet.allOf(ServerStatus.class), expected.keySet());
+
+        for (ServerStatus from : ServerStatus.values()) {
+            for (ServerStatus to : ServerStatus.values()) {
+                assertEquals(from + " -> " + to, expected.get(from).contains(to), from.canTransitionTo(to));
+            }
+        }
+    }
+
+    @Test
+    public void nothingReturnsToUnknown() {
+        for (ServerStatus from : ServerStatus.values()) {
+            assertFalse(from.canTransitionTo(UNKNOWN));
+            assertFalse(from + " -> itself", from.canTransitionTo(from));
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 MyServer Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package au.com.grieve.myserver.platform.bungeecord;
+
+import au.com.grieve.myserver.api.ServerStatus;
+import au.com.grieve.myserver.api.ServerStatusListener;
+import au.com.grieve.myserver.api.scheduler.IScheduledTask;
+import au.com.grieve.myserver.api.templates.server.IServer;
+import au.com.grieve.myserver.exceptions.InvalidServerException;
+import au.com.grieve.myserver.platform.bungeecord.api.templates.server.IBungeeServer;
+import lombok.Getter;
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.ServerConnectEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hibernates or stops servers nobody is using and brings them back when a player connects
+ * <p>
+ * Servers that start on connect stay registered with Bungeecord while stopped. A player switching to one, or to a
+ * hibernated server, is held where they are while it starts or thaws and sent on once it is ready. Thawing can mean
+ * walking and signalling the process tree so it is never done on the proxy's network thread. A player joining the
+ * proxy straight onto such a server has nowhere to be held, so is asked to reconnect shortly.
+ */
+@Getter
+public class BungeeIdleManager implements Listener {
+    public static final long CHECK_INTERVAL = 30;
+
+    private final BungeeServerManager serverManager;
+
+    // When each running server was first seen empty
+    private final Map<UUID, Long> emptySince = new ConcurrentHashMap<>();
+
+    // Players waiting for a server to start
+    private final Map<UUID, List<ProxiedPlayer>> waiting = new ConcurrentHashMap<>();
+
+    private final ServerStatusListener statusListener = this::onStatusChange;
+    private IScheduledTask task;
+
+    public BungeeIdleManager(BungeeServerManager serverManager) {
+        this.serverManager = serverManager;
+    }
+
+    public void start() {
+        BungeeMyServer myServer = serverManager.getMyServer();
+        serverManager.addStatusListener(statusListener);
+        myServer.getPlugin().getProxy().getPluginManager().registerListener(myServer.getPlugin(), this);
+        task = myServer.getScheduler().schedule(this::checkIdle, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        serverManager.getMyServer().getPlugin().getProxy().getPluginManager().unregisterListener(this);
+        serverManager.removeStatusListener(statusListener);
+    }
+
+    /**
+     * Hibernate or stop any server that has had no players for longer than its idle times
+     */
+    protected void checkIdle() {
+        long now = System.nanoTime();
+
+        for (IServer server : serverManager.getServerInstances().values()) {
+            // The pool looks after its own
+            if (server.isPooled()) {
+                continue;
+            }
+
+            ServerStatus status = server.getStatus();
+            int stop = server.getIdleStop();
+            int hibernate = server.getIdleHibernate();
+            if ((stop <= 0 && hibernate <= 0) || (status != ServerStatus.STARTED && status != ServerStatus.HIBERNATED)) {
+                emptySince.remove(server.getUuid());
+                continue;
+            }
+
+            ServerInfo info = serverManager.getMyServer().getPlugin().getProxy().getServers().get(server.getName());
+            if (info == null || !info.getPlayers().isEmpty() || waiting.containsKey(server.getUuid())) {
+                emptySince.remove(server.getUuid());
+                continue;
+            }
+
+            Long since = emptySince.putIfAbsent(server.getUuid(), now);
+            if (since == null) {
+                continue;
+            }
+
+            // Hibernating keeps the clock running towards a stop
+            if (stop > 0 && now - since >= TimeUnit.MINUTES.toNanos(stop)) {
+                emptySince.remove(server.getUuid());
+                serverManager.getMyServer().getPlugin().getLogger().info("Stopping idle server " + server.getName());
+                server.stopAsync();
+            } else if (status == ServerStatus.STARTED && hibernate > 0 && now - since >= TimeUnit.MINUTES.toNanos(hibernate)) {
+                serverManager.getMyServer().getPlugin().getLogger().info("Hibernating idle server " + server.getName());
+                try {
+                    server.hibernate();
+                } catch (InvalidServerException | IOException e) {
+                    serverManager.getMyServer().getPlugin().getLogger().warning("Unable to hibernate " + server.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    @EventHandler
+    public void onServerConnect(ServerConnectEvent event) {
+        IBungeeServer server = serverManager.getBungeeServer(event.getTarget().getName());
+        if (server == null || server.getStatus() == ServerStatus.STARTED) {
+            return;
+        }
+
+        ProxiedPlayer player = event.getPlayer();
+        boolean hibernated = server.getStatus() == ServerStatus.HIBERNATED;
+        if (!hibernated && !server.isIdleStart()) {
+            return;
+        }
+
+        event.setCancelled(true);
+
+        if (player.getServer() == null) {
+            player.disconnect(new ComponentBuilder("Server " + server.getName() + " is starting, please reconnect shortly.")
+                    .color(ChatColor.YELLOW).create());
+        } else {
+            player.sendMessage(new ComponentBuilder(hibernated ? "Waking server " : "Starting server ").color(ChatColor.AQUA)
+                    .append(server.getName()).color(ChatColor.WHITE)
+                    .append(", you will be sent there when it is ready.").color(ChatColor.AQUA).create());
+            waiting.computeIfAbsent(server.getUuid(), k -> new CopyOnWriteArrayList<>()).add(player);
+        }
+
+        if (hibernated) {
+            wakeServer(server);
+        } else {
+            startServer(server);
+        }
+    }
+
+    /**
+     * Wake a hibernated server in the background, sending on anyone waiting once it is running
+     */
+    protected void wakeServer(IServer server) {
+        serverManager.getMyServer().getScheduler().runAsync(() -> {
+            try {
+                server.wake();
+            } catch (InvalidServerException | IOException e) {
+                // Already woken by someone else
+                if (server.getStatus() != ServerStatus.STARTED) {
+                    release(server, "Unable to wake server " + server.getName() + ": " + e.getMessage());
+                    return;
+                }
+            }
+
+            // Catch players added after it had already been woken
+            connectWaiting(server);
+        });
+    }
+
+    /**
+     * Start a server if it is stopped. Anything else will either start or stop it anyway
+     */
+    protected void startServer(IServer server) {
+        switch (server.getStatus()) {
+            case STOPPED:
+            case ERROR:
+                break;
+            default:
+                return;
+        }
+
+        server.startAsync().whenComplete((status, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                release(server, "Unable to start server " + server.getName() + ": " + cause.getMessage());
+            }
+        });
+
+        int position = server.getQueuePosition();
+        if (position > 0) {
+            for (ProxiedPlayer player : waiting.getOrDefault(server.getUuid(), Collections.emptyList())) {
+                player.sendMessage(new ComponentBuilder("Waiting for resources, position in queue: ").color(ChatColor.AQUA)
+                        .append(String.valueOf(position)).color(ChatColor.WHITE).create());
+            }
+        }
+    }
+
+    /**
+     * Tell any players waiting on a server that it won't be starting
+     */
+    protected void release(IServer server, String message) {
+        List<ProxiedPlayer> players = waiting.remove(server.getUuid());
+        if (players == null) {
+            return;
+        }
+
+        for (ProxiedPlayer player : players) {
+            player.sendMessage(new ComponentBuilder(message).color(ChatColor.RED).create());
+        }
+    }
+
+    /**
+     * Send any players waiting on a server to it
+     */
+    protected void connectWaiting(IServer server) {
+        List<ProxiedPlayer> players = waiting.remove(server.getUuid());
+        ServerInfo info = serverManager.getMyServer().getPlugin().getProxy().getServers().get(server.getName());
+        if (players != null && info != null) {
+            for (ProxiedPlayer player : players) {
+                player.connect(info);
+            }
+        }
+    }
+
+    protected void onStatusChange(IServer server, ServerStatus previous, ServerStatus status) {
+        switch (status) {
+            case STARTED:
+                emptySince.remove(server.getUuid());
+
+                connectWaiting(server);
+                break;
+            case STOPPED:
+                emptySince.remove(server.getUuid());
+
+                // A player arrived while it was stopping
+                if (previous == ServerStatus.STOPPING && waiting.containsKey(server.getUuid())) {
+                    startServer(server);
+                }
+                break;
+        }
+    }
+}
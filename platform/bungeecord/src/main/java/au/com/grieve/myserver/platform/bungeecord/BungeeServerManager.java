@@ -24,27 +24,106 @@
 
 package au.com.grieve.myserver.platform.bungeecord;
 
+import au.com.grieve.myserver.HealthMonitor;
+import au.com.grieve.myserver.PortAllocator;
 import au.com.grieve.myserver.ServerManager;
 import au.com.grieve.myserver.api.ServerStatus;
+import au.com.grieve.myserver.api.templates.server.IServer;
+import au.com.grieve.myserver.api.templates.server.IServerTemplate;
+import au.com.grieve.myserver.exceptions.InvalidServerException;
+import au.com.grieve.myserver.exceptions.NoSuchServerException;
+import au.com.grieve.myserver.exceptions.PortNotFoundException;
 import au.com.grieve.myserver.platform.bungeecord.api.templates.server.IBungeeServer;
-import au.com.grieve.myserver.platform.bungeecord.exceptions.PortNotFoundException;
+import au.com.grieve.myserver.platform.bungeecord.events.ServerStatusChangeEvent;
+import lombok.Getter;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.ComponentBuilder;
 import net.md_5.bungee.api.config.ServerInfo;
 
+import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BungeeServerManager extends ServerManager {
 
-    private final List<Integer> reservedPorts = new ArrayList<>();
+    // Longest path that fits in sockaddr_un
+    public static final int MAX_SOCKET_PATH = 107;
 
+    @Getter
+    private final PortAllocator portAllocator;
+
+    // Bungeecord servers we registered, by name. Bungeecord's own map isn't thread safe, so it is only changed by
+    // the synchronized methods here
+    private final Map<String, UUID> bungeeServers = new ConcurrentHashMap<>();
+
+    // Stopped servers registered so players can start them by connecting. These hold no port
+    private final Set<UUID> parkedServers = ConcurrentHashMap.newKeySet();
+
+    @Getter
+    private final BungeeIdleManager idleManager = new BungeeIdleManager(this);
 
     public BungeeServerManager(BungeeMyServer myServer) {
         super(myServer);
+
+        this.portAllocator = new PortAllocator(myServer.getConfig().getBungeecord().getPortStart(),
+                myServer.getConfig().getBungeecord().getPortAmount());
+
+        // Publish status changes as Bungeecord events
+        addStatusListener((server, previous, status) -> getMyServer().getPlugin().getProxy().getPluginManager()
+                .callEvent(new ServerStatusChangeEvent(server, previous, status)));
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        idleManager.start();
+    }
+
+    @Override
+    public void shutdown() {
+        idleManager.stop();
+        super.shutdown();
+    }
+
+    /**
+     * Follow renames of servers registered with Bungeecord, and keep stopped servers that start on connect registered
+     */
+    @Override
+    public void registerServer(IServer server) {
+        super.registerServer(server);
+
+        if (server instanceof IBungeeServer) {
+            renameBungeeServer((IBungeeServer) server);
+        }
+
+        if (server instanceof IBungeeServer && server.getStatus() == ServerStatus.STOPPED) {
+            try {
+                parkBungeeServer((IBungeeServer) server);
+            } catch (InvalidServerException e) {
+                getMyServer().getPlugin().getLogger().warning("Unable to register " + server.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void unregisterServer(IServer server) {
+        super.unregisterServer(server);
+
+        // A running server keeps its registration until it stops
+        if (server instanceof IBungeeServer && server.getUuid().equals(bungeeServers.get(server.getName()))
+                && !getServerInstances().containsKey(server.getUuid())) {
+            unregisterBungeeServer((IBungeeServer) server);
+        }
     }
 
     @Override
@@ -53,51 +132,252 @@ public class BungeeServerManager extends ServerManager {
     }
 
     /**
-     * Return an unused port and reserves it
+     * Return an unused port and reserves it, preferring the one the server last used
      *
-     * @return first unused free port
+     * @param server Server the port is for
+     * @return free port
      */
-    protected int reservePort() throws PortNotFoundException {
-        int startPort = getMyServer().getConfig().getBungeecord().getPortStart();
-        int amount = getMyServer().getConfig().getBungeecord().getPortAmount();
-        for (int port = startPort; port < startPort + amount; port++) {
-            if (!reservedPorts.contains(port)) {
-                reservedPorts.add(port);
-                return port;
-            }
-        }
-        throw new PortNotFoundException("No free port");
+    protected int reservePort(IBungeeServer server) throws PortNotFoundException {
+        return portAllocator.allocate(server.getLastPort());
     }
 
     protected void releasePort(int port) {
-        reservedPorts.remove(port);
+        portAllocator.release(port);
     }
 
-    public void registerBungeeServer(IBungeeServer server) throws PortNotFoundException {
-        int port = reservePort();
+    /**
+     * Register a server with Bungeecord, keeping the existing registration if it has one
+     * <p>
+     * A parked server is given a port now, preferring the one it last used.
+     *
+     * @param server Server to register
+     */
+    public synchronized void registerBungeeServer(IBungeeServer server) throws PortNotFoundException, InvalidServerException {
+        ServerInfo existing = getMyServer().getPlugin().getProxy().getServers().get(server.getName());
+        if (existing != null && !parkedServers.contains(server.getUuid())) {
+            // We can't register a server with the same name as another Bungee server
+            if (!server.getUuid().equals(bungeeServers.get(server.getName()))) {
+                throw new InvalidServerException("Another running server has our name");
+            }
+
+            if (existing.getSocketAddress() instanceof InetSocketAddress) {
+                server.setServerPort(existing.getAddress().getPort());
+                server.setServerIp(existing.getAddress().getHostString());
+            } else {
+                Path socket = server.getServerPath().resolve("server.sock").toAbsolutePath();
+                server.setServerSocket(socket);
+                server.setServerIp("unix:" + socket);
+            }
+            return;
+        }
+
+        if (server.getTemplate().getServerTransport() == IServerTemplate.TransportEnum.UNIX && registerSocketServer(server)) {
+            return;
+        }
+
+        int port = reservePort(server);
         try {
             server.setServerPort(port);
             server.setServerIp("127.0.0.1");
 
-            ServerInfo info = getMyServer().getPlugin().getProxy().constructServerInfo(
-                    server.getName(),
-                    new InetSocketAddress("127.0.0.1", port),
-                    server.getName(),
-                    true); // TODO Implement restricted tag
-
-            getMyServer().getPlugin().getProxy().getServers().put(server.getName(), info);
+            putBungeeServer(server, constructServerInfo(server, new InetSocketAddress("127.0.0.1", port)));
         } catch (Exception e) {
+            server.setServerPort(null);
             releasePort(port);
             throw e;
         }
     }
 
-    public void unregisterBungeeServer(IBungeeServer server) {
+    /**
+     * Register a server listening on a socket file in its folder, so no port is needed
+     *
+     * @param server Server to register
+     * @return false if unix sockets aren't available and a port should be used instead
+     */
+    protected boolean registerSocketServer(IBungeeServer server) throws InvalidServerException {
+        Path socket = server.getServerPath().resolve("server.sock").toAbsolutePath();
+        if (socket.toString().getBytes(StandardCharsets.UTF_8).length > MAX_SOCKET_PATH) {
+            getMyServer().getPlugin().getLogger().warning("Socket path too long for " + server.getName() + ", using tcp: " + socket);
+            return false;
+        }
+
+        SocketAddress address = newDomainSocketAddress(socket);
+        if (address == null) {
+            getMyServer().getPlugin().getLogger().warning("Unix sockets aren't available, using tcp for " + server.getName());
+            return false;
+        }
+
+        // A socket left behind by a previous run would stop the server binding
+        try {
+            Files.deleteIfExists(socket);
+        } catch (IOException e) {
+            throw new InvalidServerException("Unable to remove old socket " + socket, e);
+        }
+
+        server.setServerSocket(socket);
+        server.setServerIp("unix:" + socket);
+
+        putBungeeServer(server, constructServerInfo(server, address));
+        return true;
+    }
+
+    protected void putBungeeServer(IBungeeServer server, ServerInfo info) {
+        getMyServer().getPlugin().getProxy().getServers().put(server.getName(), info);
+        bungeeServers.put(server.getName(), server.getUuid());
+        parkedServers.remove(server.getUuid());
+    }
+
+    /**
+     * Build the Bungeecord server info for a server listening on address
+     */
+    protected ServerInfo constructServerInfo(IBungeeServer server, SocketAddress address) {
+        return getMyServer().getPlugin().getProxy().constructServerInfo(
+                server.getName(),
+                address,
+                server.getName(),
+                true); // TODO Implement restricted tag
+    }
+
+    /**
+     * Return a Netty domain socket address for path, or null if the proxy can't use them
+     * <p>
+     * Netty is only on the proxy's classpath so is looked up at runtime.
+     */
+    protected static SocketAddress newDomainSocketAddress(Path path) {
+        if (!isProxyEpoll()) {
+            return null;
+        }
+
+        try {
+            return (SocketAddress) Class.forName("io.netty.channel.unix.DomainSocketAddress")
+                    .getConstructor(String.class)
+                    .newInstance(path.toString());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return true if the proxy's own pipeline uses epoll, which it needs to connect to a domain socket
+     * <p>
+     * Epoll being available isn't enough as Bungeecord can be told not to use it with -Dbungee.epoll=false.
+     */
+    protected static boolean isProxyEpoll() {
+        try {
+            Field field = Class.forName("net.md_5.bungee.netty.PipelineUtils").getDeclaredField("epoll");
+            field.setAccessible(true);
+            return field.getBoolean(null);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException ignored) {
+            // Make the same checks Bungeecord does
+        }
+
+        if (!Boolean.parseBoolean(System.getProperty("bungee.epoll", "true"))) {
+            return false;
+        }
+
+        try {
+            return (boolean) Class.forName("io.netty.channel.epoll.Epoll").getMethod("isAvailable").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+
+    public synchronized void unregisterBungeeServer(IBungeeServer server) {
         getMyServer().getPlugin().getProxy().getServers().remove(server.getName());
+        bungeeServers.remove(server.getName(), server.getUuid());
+        parkedServers.remove(server.getUuid());
+        if (server.getServerPort() != null) {
+            releasePort(server.getServerPort());
+        }
         server.setServerPort(null);
+        server.setServerSocket(null);
         server.setServerIp(null);
     }
 
+    /**
+     * Move a server's Bungeecord registration to its current name, keeping its address
+     *
+     * @param server Server that may have been renamed
+     */
+    protected synchronized void renameBungeeServer(IBungeeServer server) {
+        for (Map.Entry<String, UUID> entry : bungeeServers.entrySet()) {
+            if (!entry.getValue().equals(server.getUuid()) || entry.getKey().equals(server.getName())) {
+                continue;
+            }
+
+            ServerInfo previous = getMyServer().getPlugin().getProxy().getServers().remove(entry.getKey());
+            bungeeServers.remove(entry.getKey(), server.getUuid());
+            if (previous == null) {
+                continue;
+            }
+
+            ServerInfo info = getMyServer().getPlugin().getProxy().constructServerInfo(
+                    server.getName(),
+                    previous.getSocketAddress(),
+                    server.getName(),
+                    previous.isRestricted());
+            getMyServer().getPlugin().getProxy().getServers().put(server.getName(), info);
+            bungeeServers.put(server.getName(), server.getUuid());
+        }
+    }
+
+    /**
+     * Leave a stopped server registered if players may start it by connecting, else unregister it
+     * <p>
+     * Nothing listens at a parked server's address as connections to it are intercepted, so it gives up its port
+     * until it starts again.
+     *
+     * @param server Stopped server
+     */
+    public synchronized void parkBungeeServer(IBungeeServer server) throws InvalidServerException {
+        boolean ours = server.getUuid().equals(bungeeServers.get(server.getName()));
+        if (!server.isIdleStart()) {
+            if (ours) {
+                unregisterBungeeServer(server);
+            }
+            return;
+        }
+
+        ServerInfo existing = getMyServer().getPlugin().getProxy().getServers().get(server.getName());
+        if (existing != null && !ours) {
+            throw new InvalidServerException("Another running server has our name");
+        }
+
+        if (existing != null && parkedServers.contains(server.getUuid())) {
+            return;
+        }
+
+        SocketAddress address = existing != null
+                ? existing.getSocketAddress()
+                : new InetSocketAddress("127.0.0.1", server.getLastPort() != null ? server.getLastPort() : 0);
+        if (ours) {
+            unregisterBungeeServer(server);
+        }
+
+        putBungeeServer(server, constructServerInfo(server, address));
+        parkedServers.add(server.getUuid());
+    }
+
+    /**
+     * Return the server we registered with Bungeecord under name
+     *
+     * @param name Bungeecord server name
+     * @return server or null if not one of ours
+     */
+    public IBungeeServer getBungeeServer(String name) {
+        UUID uuid = bungeeServers.get(name);
+        if (uuid == null) {
+            return null;
+        }
+
+        try {
+            IServer server = getServer(uuid);
+            return server instanceof IBungeeServer ? (IBungeeServer) server : null;
+        } catch (NoSuchServerException e) {
+            return null;
+        }
+    }
+
     public CompletableFuture<Boolean> serverPing(IBungeeServer server) {
         ServerInfo serverInfo = getMyServer().getPlugin().getProxy().getServers().get(server.getName());
         CompletableFuture<Boolean> cf = new CompletableFuture<>();
@@ -122,6 +402,9 @@ public class BungeeServerManager extends ServerManager {
             case INIT:
                 cb.color(ChatColor.BLUE);
                 break;
+            case HIBERNATED:
+                cb.color(ChatColor.AQUA);
+                break;
             case STARTING:
             case STARTED:
                 cb.color(ChatColor.GREEN);
@@ -132,4 +415,23 @@ public class BungeeServerManager extends ServerManager {
         return cb.create();
     }
 
+    public BaseComponent[] healthToComponent(HealthMonitor.Health health) {
+        ComponentBuilder cb = new ComponentBuilder(health.getState().name());
+        switch (health.getState()) {
+            case HEALTHY:
+                cb.color(ChatColor.GREEN)
+                        .append(" (" + health.getLatency() + "ms)").color(ChatColor.GRAY);
+                break;
+            case SUSPECT:
+                cb.color(ChatColor.YELLOW);
+                break;
+            case UNHEALTHY:
+                cb.color(ChatColor.RED)
+                        .append(" (" + health.getFailures() + " failed pings)").color(ChatColor.GRAY);
+                break;
+            default:
+                cb.color(ChatColor.GRAY);
+        }
+        return cb.create();
+    }
 }
@@ -32,6 +32,7 @@ import au.com.grieve.myserver.platform.bungeecord.commands.MyServerCommand;
 import au.com.grieve.myserver.platform.bungeecord.config.BungeeConfig;
 import au.com.grieve.myserver.platform.bungeecord.config.YamlBungeeConfig;
 import au.com.grieve.myserver.platform.bungeecord.parsers.MSServer;
+import au.com.grieve.myserver.platform.bungeecord.parsers.MSTagAssignments;
 import au.com.grieve.myserver.platform.bungeecord.parsers.MSTagDefinition;
 import au.com.grieve.myserver.platform.bungeecord.parsers.MSTagValue;
 import au.com.grieve.myserver.platform.bungeecord.parsers.MSTemplate;
@@ -69,6 +70,7 @@ public class MyServerPlugin extends Plugin {
         bcf.registerParser("MSServer", MSServer.class);
         bcf.registerParser("MSTagDefinition", MSTagDefinition.class);
         bcf.registerParser("MSTagValue", MSTagValue.class);
+        bcf.registerParser("MSTagAssignments", MSTagAssignments.class);
 
         // Register Commands
         bcf.registerCommand(new MyServerCommand());
@@ -78,10 +80,15 @@ public class MyServerPlugin extends Plugin {
 
         // Register Server Manager
         myServer = new BungeeMyServer(config, this);
+        myServer.init();
     }
 
     @Override
     public void onDisable() {
+        if (myServer != null) {
+            myServer.shutdown();
+        }
+
         super.onDisable();
     }
 
@@ -31,6 +31,7 @@ import au.com.grieve.myserver.api.TagDefinition;
 import au.com.grieve.myserver.api.templates.server.IServer;
 import au.com.grieve.myserver.api.templates.server.IServerTemplate;
 import au.com.grieve.myserver.exceptions.InvalidServerException;
+import au.com.grieve.myserver.exceptions.TagException;
 import au.com.grieve.myserver.platform.bungeecord.MyServerPlugin;
 import au.com.grieve.myserver.platform.bungeecord.api.templates.server.IBungeeServer;
 import net.md_5.bungee.api.ChatColor;
@@ -38,7 +39,10 @@ import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.chat.ComponentBuilder;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 @Command(value="msas", input="server")
 @Arg("server|s")
@@ -74,10 +78,17 @@ public class AdminServerCommand extends BungeecordAnnotationCommand {
     public void onCreate(CommandSender sender, String name, IServerTemplate template) {
         MyServerPlugin.INSTANCE.getProxy().getScheduler().runAsync(MyServerPlugin.INSTANCE, () -> {
             try {
+                // Hand over a warm server if the template has one ready
+                if (MyServerPlugin.INSTANCE.getMyServer().getServerManager().getWarmPool()
+                        .claim(template, name, Collections.emptyMap()) != null) {
+                    sender.sendMessage(new ComponentBuilder("Created Started Server: " + name).color(ChatColor.AQUA).create());
+                    return;
+                }
+
                 sender.sendMessage(new ComponentBuilder("Initializing Server: " + name).color(ChatColor.AQUA).create());
                 template.createServer(name);
                 sender.sendMessage(new ComponentBuilder("Created Server: " + name).color(ChatColor.AQUA).create());
-            } catch (InvalidServerException | IOException e) {
+            } catch (InvalidServerException | TagException | IOException e) {
                 sender.sendMessage(new ComponentBuilder(e.getMessage()).color(ChatColor.RED).create());
             }
         });
@@ -112,6 +123,26 @@ public class AdminServerCommand extends BungeecordAnnotationCommand {
         );
     }
 
+    @Arg("edit @MSServer set @MSTagAssignments")
+    public void onServerEditSetMany(CommandSender sender, IBungeeServer server, Map<String, String> values) {
+        MyServerPlugin.INSTANCE.getProxy().getScheduler().runAsync(MyServerPlugin.INSTANCE, () -> {
+            try {
+                server.setTags(values);
+            } catch (TagException | IOException e) {
+                sender.sendMessage(new ComponentBuilder(e.getMessage()).color(ChatColor.RED).create());
+                return;
+            }
+
+            ComponentBuilder cb = new ComponentBuilder("Set Tags:").color(ChatColor.AQUA);
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                cb.append("\n  ").append(entry.getKey()).color(ChatColor.WHITE)
+                        .append(" = ").color(ChatColor.AQUA)
+                        .append(entry.getValue()).color(ChatColor.WHITE);
+            }
+            sender.sendMessage(cb.create());
+        });
+    }
+
     @Arg("edit @MSServer unset @MSTagDefinition")
     public void onServerEditUnset(CommandSender sender, IBungeeServer server, TagDefinition definition) {
         server.resetTag(definition.getName());
@@ -126,31 +157,68 @@ public class AdminServerCommand extends BungeecordAnnotationCommand {
 
     @Arg("start @MSServer")
     public void onServerStart(CommandSender sender, IBungeeServer server) {
+        sender.sendMessage( new ComponentBuilder("Starting Server: ").color(ChatColor.AQUA)
+                .append(server.getName()).color(ChatColor.WHITE).create());
+        server.startAsync().whenComplete((status, e) -> {
+            if (e != null) {
+                sender.sendMessage( new ComponentBuilder(errorMessage(e)).color(ChatColor.RED).create());
+                return;
+            }
+            sender.sendMessage( new ComponentBuilder("Server Started: ").color(ChatColor.AQUA)
+                    .append(server.getName()).color(ChatColor.WHITE).create());
+        });
+
+        int position = server.getQueuePosition();
+        if (position > 0) {
+            sender.sendMessage( new ComponentBuilder("Waiting for resources, position in queue: ").color(ChatColor.AQUA)
+                    .append(String.valueOf(position)).color(ChatColor.WHITE).create());
+        }
+    }
+
+    @Arg("stop @MSServer")
+    public void onServerStop(CommandSender sender, IBungeeServer server) {
+        sender.sendMessage( new ComponentBuilder("Stopping Server: ").color(ChatColor.AQUA)
+                .append(server.getName()).color(ChatColor.WHITE).create());
+        server.stopAsync().whenComplete((status, e) -> {
+            if (e != null) {
+                sender.sendMessage( new ComponentBuilder(errorMessage(e)).color(ChatColor.RED).create());
+                return;
+            }
+            sender.sendMessage( new ComponentBuilder("Server Stopped: ").color(ChatColor.AQUA)
+                    .append(server.getName()).color(ChatColor.WHITE).create());
+        });
+    }
+
+    @Arg("hibernate @MSServer")
+    public void onServerHibernate(CommandSender sender, IBungeeServer server) {
         MyServerPlugin.INSTANCE.getProxy().getScheduler().runAsync(MyServerPlugin.INSTANCE, () -> {
             try {
-                sender.sendMessage( new ComponentBuilder("Starting Server: ").color(ChatColor.AQUA)
-                        .append(server.getName()).color(ChatColor.WHITE).create());
-                server.start();
-//                sender.sendMessage( new ComponentBuilder("Server Started: ").color(ChatColor.AQUA)
-//                        .append(server.getName()).color(ChatColor.WHITE).create());
+                server.hibernate();
             } catch (InvalidServerException | IOException e) {
-                sender.sendMessage( new ComponentBuilder(e.getMessage()).color(ChatColor.RED).create());
+                sender.sendMessage(new ComponentBuilder(errorMessage(e)).color(ChatColor.RED).create());
+                return;
             }
+            sender.sendMessage(new ComponentBuilder("Server Hibernated: ").color(ChatColor.AQUA)
+                    .append(server.getName()).color(ChatColor.WHITE).create());
         });
     }
 
-    @Arg("stop @MSServer")
-    public void onServerStop(CommandSender sender, IBungeeServer server) {
+    @Arg("wake @MSServer")
+    public void onServerWake(CommandSender sender, IBungeeServer server) {
         MyServerPlugin.INSTANCE.getProxy().getScheduler().runAsync(MyServerPlugin.INSTANCE, () -> {
             try {
-                sender.sendMessage( new ComponentBuilder("Stopping Server: ").color(ChatColor.AQUA)
-                        .append(server.getName()).color(ChatColor.WHITE).create());
-                server.stop();
-//                sender.sendMessage( new ComponentBuilder("Server Stopped: ").color(ChatColor.AQUA)
-//                        .append(server.getName()).color(ChatColor.WHITE).create());
+                server.wake();
             } catch (InvalidServerException | IOException e) {
-                sender.sendMessage( new ComponentBuilder(e.getMessage()).color(ChatColor.RED).create());
+                sender.sendMessage(new ComponentBuilder(errorMessage(e)).color(ChatColor.RED).create());
+                return;
             }
+            sender.sendMessage(new ComponentBuilder("Server Woken: ").color(ChatColor.AQUA)
+                    .append(server.getName()).color(ChatColor.WHITE).create());
         });
     }
+
+    private String errorMessage(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
 }
@@ -27,6 +27,7 @@ package au.com.grieve.myserver.platform.bungeecord.commands;
 import au.com.grieve.bcf.annotation.Arg;
 import au.com.grieve.bcf.annotation.Command;
 import au.com.grieve.bcf.platform.bungeecord.impl.command.BungeecordAnnotationCommand;
+import au.com.grieve.myserver.ProvisioningService;
 import au.com.grieve.myserver.platform.bungeecord.MyServerPlugin;
 import au.com.grieve.myserver.platform.bungeecord.api.templates.IBungeeTemplate;
 import net.md_5.bungee.api.ChatColor;
@@ -71,4 +72,44 @@ public class AdminTemplateCommand extends BungeecordAnnotationCommand {
         sender.sendMessage( template.bungeeGetInfo());
     }
 
+    @Arg("provision status")
+    public void onProvisionStatus(CommandSender sender) {
+        ProvisioningService provisioningService = MyServerPlugin.INSTANCE.getMyServer().getProvisioningService();
+        ComponentBuilder cb = new ComponentBuilder();
+
+        cb.append("========= [ Provisioning ] =========").color(ChatColor.AQUA);
+        cb.append("\nWarm-up: ").color(ChatColor.WHITE)
+                .append(provisioningService.getWarmUpDone().get() + "/" + provisioningService.getWarmUpTotal().get() + " templates checked").color(ChatColor.YELLOW);
+
+        List<ProvisioningService.Job> jobs = provisioningService.getJobList();
+        if (jobs.size() > 0) {
+            for (ProvisioningService.Job job : jobs) {
+                cb.append("\n").append(job.getType() + " " + job.getVersion()).color(ChatColor.WHITE)
+                        .append(" - ").color(ChatColor.DARK_GRAY)
+                        .append(job.getState().toString()).color(jobStateColor(job.getState()))
+                        .append(" (" + job.getElapsed() / 1000 + "s)").color(ChatColor.GRAY);
+                if (job.getError() != null) {
+                    cb.append(" " + job.getError()).color(ChatColor.RED);
+                }
+            }
+        } else {
+            cb.append("\nNothing provisioned").color(ChatColor.YELLOW);
+        }
+
+        sender.sendMessage(cb.create());
+    }
+
+    private ChatColor jobStateColor(ProvisioningService.JobState state) {
+        switch (state) {
+            case READY:
+                return ChatColor.GREEN;
+            case BUILDING:
+                return ChatColor.YELLOW;
+            case FAILED:
+                return ChatColor.RED;
+            default:
+                return ChatColor.GRAY;
+        }
+    }
+
 }
@@ -62,6 +62,11 @@ public class YamlBungeeConfig implements BungeeConfig {
         return new YamlFolderSection(rootNode.get("folder"));
     }
 
+    @Override
+    public BaseLimitsSection getLimitsConfig() {
+        return new YamlLimitsSection(rootNode.get("limits"));
+    }
+
     @SuppressWarnings("InnerClassMayBeStatic")
     @Getter
     @RequiredArgsConstructor
@@ -104,4 +109,26 @@ public class YamlBungeeConfig implements BungeeConfig {
             return plugin.getDataFolder().toPath().resolve(node.has("servers") ? node.get("servers").asText() : "servers");
         }
     }
+
+    @SuppressWarnings("InnerClassMayBeStatic")
+    @Getter
+    @RequiredArgsConstructor
+    public class YamlLimitsSection implements BaseLimitsSection {
+        private final JsonNode node;
+
+        @Override
+        public long getMemory() {
+            return node != null && node.has("memory") ? node.get("memory").asLong() : 0;
+        }
+
+        @Override
+        public long getMemoryOverhead() {
+            return node != null && node.has("memory-overhead") ? node.get("memory-overhead").asLong() : 256;
+        }
+
+        @Override
+        public int getMaxStarting() {
+            return node != null && node.has("max-starting") ? node.get("max-starting").asInt() : 0;
+        }
+    }
 }
\ No newline at end of file
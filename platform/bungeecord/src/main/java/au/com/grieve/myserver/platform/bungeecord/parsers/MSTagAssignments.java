@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2020-2022 Brendan Grieve (bundabrg) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package au.com.grieve.myserver.platform.bungeecord.parsers;
+
+import au.com.grieve.bcf.CompletionCandidateGroup;
+import au.com.grieve.bcf.ParsedLine;
+import au.com.grieve.bcf.ParserContext;
+import au.com.grieve.bcf.exception.EndOfLineException;
+import au.com.grieve.bcf.exception.ParserSyntaxException;
+import au.com.grieve.bcf.impl.completion.DefaultCompletionCandidate;
+import au.com.grieve.bcf.impl.completion.StaticCompletionCandidateGroup;
+import au.com.grieve.bcf.impl.error.UnexpectedInputError;
+import au.com.grieve.bcf.impl.parser.BaseParser;
+import au.com.grieve.myserver.api.TagDefinition;
+import au.com.grieve.myserver.api.templates.server.IServer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.ToString;
+import net.md_5.bungee.api.CommandSender;
+
+/**
+ * Parses the rest of the line as a list of tag assignments in the form name=value
+ * <p>
+ * Tags aren't validated here. {@link IServer#setTags(Map)} rejects unknown tags and invalid values with a message
+ * naming them.
+ */
+@Getter
+@ToString(callSuper = true)
+public class MSTagAssignments extends BaseParser<CommandSender, Map<String, String>> {
+
+  public MSTagAssignments(Map<String, String> parameters) {
+    super(parameters);
+  }
+
+  public MSTagAssignments(String description, String defaultValue, boolean suppress,
+      boolean required,
+      String placeholder, List<String> switchValue) {
+    super(description, defaultValue, suppress, required, placeholder, switchValue);
+  }
+
+  protected IServer getServer(ParserContext<CommandSender> context) {
+    return context.getHistory().allObjects().stream()
+        .collect(
+            Collectors.collectingAndThen(
+                Collectors.toList(),
+                l -> {
+                  Collections.reverse(l);
+                  return l;
+                }))
+        .stream()
+        .filter(o -> o instanceof IServer)
+        .map(o -> ((IServer) o))
+        .findFirst()
+        .orElse(null);
+  }
+
+  @Override
+  protected Map<String, String> doParse(ParserContext<CommandSender> context, ParsedLine line)
+      throws EndOfLineException, ParserSyntaxException {
+
+    // Assignments only make sense following a server
+    if (getServer(context) == null) {
+      throw new ParserSyntaxException(line, new UnexpectedInputError());
+    }
+
+    // Anything but name=value is left for other commands, such as set with a separate tag and value. Tag names and
+    // values are checked when the tags are set, which reports exactly which one is wrong
+    Map<String, String> result = new LinkedHashMap<>();
+    for (String input = line.next(); input != null; input = nextOrNull(line)) {
+      int split = input.indexOf('=');
+      if (split < 1) {
+        throw new ParserSyntaxException(line, new UnexpectedInputError());
+      }
+
+      result.put(input.substring(0, split), input.substring(split + 1));
+    }
+    return result;
+  }
+
+  @Override
+  protected void doComplete(ParserContext<CommandSender> context, ParsedLine line,
+      List<CompletionCandidateGroup> candidates)
+      throws EndOfLineException {
+    // Only the last assignment is completed
+    String input = line.next();
+    for (String next = nextOrNull(line); next != null; next = nextOrNull(line)) {
+      input = next;
+    }
+
+    IServer server = getServer(context);
+    if (server == null) {
+      return;
+    }
+
+    CompletionCandidateGroup group = new StaticCompletionCandidateGroup(input, getDescription());
+    int split = input.indexOf('=');
+    if (split < 0) {
+      String prefix = input;
+      group.getCompletionCandidates()
+          .addAll(server.getTemplate().getTags().keySet().stream()
+              .filter(s -> s.startsWith(prefix))
+              .limit(20)
+              .map(s -> new DefaultCompletionCandidate(s + "="))
+              .collect(Collectors.toList()));
+    } else {
+      String name = input.substring(0, split);
+      TagDefinition definition = server.getTemplate().getTags().get(name);
+      if (definition != null) {
+        group.getCompletionCandidates()
+            .addAll(definition.options().stream()
+                .limit(20)
+                .map(s -> new DefaultCompletionCandidate(name + "=" + s))
+                .collect(Collectors.toList()));
+      }
+    }
+    candidates.add(group);
+  }
+
+  protected String nextOrNull(ParsedLine line) {
+    try {
+      return line.next();
+    } catch (EndOfLineException e) {
+      return null;
+    }
+  }
+}
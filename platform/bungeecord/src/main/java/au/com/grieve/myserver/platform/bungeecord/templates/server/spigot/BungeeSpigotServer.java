@@ -24,10 +24,11 @@
 
 package au.com.grieve.myserver.platform.bungeecord.templates.server.spigot;
 
+import au.com.grieve.myserver.HealthMonitor;
 import au.com.grieve.myserver.exceptions.InvalidServerException;
+import au.com.grieve.myserver.exceptions.PortNotFoundException;
 import au.com.grieve.myserver.platform.bungeecord.BungeeServerManager;
 import au.com.grieve.myserver.platform.bungeecord.api.templates.server.IBungeeServer;
-import au.com.grieve.myserver.platform.bungeecord.exceptions.PortNotFoundException;
 import au.com.grieve.myserver.templates.server.spigot.SpigotServer;
 import au.com.grieve.myserver.templates.server.spigot.SpigotTemplate;
 import lombok.Getter;
@@ -40,6 +41,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @Getter
@@ -74,6 +76,11 @@ public class BungeeSpigotServer extends SpigotServer implements IBungeeServer {
                 .append(getServerManager().statusToComponent(getStatus()))
                 .append("]").color(ChatColor.WHITE);
 
+        HealthMonitor.Health health = getServerManager().getHealthMonitor().getHealth(this);
+        if (health != null) {
+            cb.append("\nHealth: ").color(ChatColor.YELLOW).append(getServerManager().healthToComponent(health));
+        }
+
         cb.append("\nServer: ").color(ChatColor.YELLOW)
                 .append("\n  Listen: ").color(ChatColor.YELLOW).append(getServerIp() != null ? getServerIp() : "").color(ChatColor.WHITE)
                 .append("\n  Port: ").color(ChatColor.YELLOW).append(getServerPort() != null ? getServerPort().toString() : "").color(ChatColor.WHITE);
@@ -83,12 +90,7 @@ public class BungeeSpigotServer extends SpigotServer implements IBungeeServer {
 
     @Override
     protected void startServer() throws InvalidServerException, IOException {
-        // We can't create a server with the same name as a running Bungee server
-        if (getServerManager().getMyServer().getPlugin().getProxy().getServers().containsKey(getName())) {
-            throw new InvalidServerException("Another running server has our name");
-        }
-
-        // Register with Bungeecord
+        // Register with Bungeecord, giving a parked registration its port
         try {
             getServerManager().registerBungeeServer(this);
         } catch (PortNotFoundException e) {
@@ -98,7 +100,7 @@ public class BungeeSpigotServer extends SpigotServer implements IBungeeServer {
         try {
             super.startServer();
         } catch (Exception e) {
-            getServerManager().unregisterBungeeServer(this);
+            parkBungeeServer();
             throw e;
         }
     }
@@ -112,12 +114,25 @@ public class BungeeSpigotServer extends SpigotServer implements IBungeeServer {
         }
     }
 
+    @Override
+    public CompletableFuture<Boolean> ping() {
+        return getServerManager().serverPing(this);
+    }
+
     @Override
     protected void onServerStop() {
         super.onServerStop();
 
-        // Unregister from Bungeecord
-        getServerManager().unregisterBungeeServer(this);
+        // Unregister from Bungeecord, unless players may start us again by connecting
+        parkBungeeServer();
+    }
+
+    private void parkBungeeServer() {
+        try {
+            getServerManager().parkBungeeServer(this);
+        } catch (InvalidServerException e) {
+            getServerManager().unregisterBungeeServer(this);
+        }
     }
 
     @Override